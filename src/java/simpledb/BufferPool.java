@@ -1,10 +1,27 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,32 +31,344 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is split into stripes by PageId hash. A lookup of a
+ * resident page takes no lock at all; loading, evicting or removing a page
+ * locks only the stripe the page belongs to. The pool's capacity is shared
+ * by all stripes through a single counter of resident pages.
+ * <p>
+ * Tables can be assigned to named pools of their own (see {@link #addPool}
+ * and {@link #assignTable}), so that pages of other tables never evict
+ * theirs. Each named pool has its own capacity, replacement policy, stripes
+ * and frame arena; callers need not know which pool a page is in.
+ * <p>
+ * Page memory comes from a {@link FrameArena} allocated with the pool:
+ * HeapFile pages are read straight into one of its buffers (see
+ * {@link #takeReadFrame}), which goes back to the arena when the page
+ * leaves the pool.
+ * <p>
+ * By default pages are written at commit (FORCE), by a {@link CommitGroup}
+ * shared with concurrent commits. With {@link #setForce}
+ * false, commit only logs the transaction's pages, and a background
+ * cleaner writes them later, in page order, after forcing the log through
+ * their update records.
+ * <p>
+ * Pages with uncommitted changes stay in the pool (NO STEAL) unless
+ * {@link #setSteal} is on. Then, when nothing else can be evicted, such a
+ * page is logged, written and evicted, and if its transaction aborts the
+ * LogFile undoes the write from the page's before image.
+ * <p>
+ * The ids of the resident pages can be saved to a file, periodically and
+ * at shutdown, and loaded again after a restart (see
+ * {@link #setHotPageFile}).
  */
 public class BufferPool {
-    /** Bytes per page, including header. */
+    /** Default bytes per page, including header. */
     public static final int PAGE_SIZE = 4096;
 
+    /** Page size used for tables that do not specify their own. */
+    private static int pageSize = PAGE_SIZE;
+
+    /** Replacement policy of pools created without one. */
+    private static String defaultPolicy = "clock";
+
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    ConcurrentHashMap<PageId, Page> m_pgHash;
-    LinkedHashMap<PageId, Boolean> evictMap;
-    int m_limit;
+    /** Number of background threads used for read-ahead I/O. */
+    static final int PREFETCH_THREADS = 2;
+    /** How long the cleaner lets committed pages accumulate before a pass. */
+    static final int CLEAN_DELAY_MS = 20;
+
+    /** Most stripes the page table is split into; a power of two. */
+    static final int NUM_STRIPES = 16;
+    /** Fewest frames per stripe. Victims are chosen within a stripe, so
+     *  small pools use fewer stripes to keep replacement decisions good. */
+    static final int MIN_STRIPE_FRAMES = 64;
+
+    /** Name of the pool of tables not assigned to another. */
+    public static final String DEFAULT_POOL = "default";
+
+    final Pool m_default;
+    /** The locks of the transactions using this pool. */
+    final LockManager m_locks;
+    final ConcurrentHashMap<String, Pool> m_pools = new ConcurrentHashMap<String, Pool>();
+    /** Named pool of each table assigned to one. */
+    final ConcurrentHashMap<Integer, Pool> m_tablePools = new ConcurrentHashMap<Integer, Pool>();
+    /** The stripes of all pools. */
+    volatile Stripe[] m_stripes;
+    final ConcurrentHashMap<Integer, PageStats> m_tableStats = new ConcurrentHashMap<Integer, PageStats>();
+    /** Whether statistics are published as MBeans. */
+    volatile boolean m_published;
+    /** Arena buffer offered to the DbFile this thread is reading a page from. */
+    private static final ThreadLocal<ByteBuffer> s_readFrame = new ThreadLocal<ByteBuffer>();
+
+    /**
+     * A buffer pool slot: the cached page, plus the bookkeeping the
+     * replacement policy keeps for it.
+     */
+    static class Frame {
+    	volatile Page page;
+    	/** When the page was last used (LRU). */
+    	volatile long lastUsed;
+    	/** Reference bit, and whether the page is hot (CLOCK). */
+    	volatile boolean referenced;
+    	boolean hot;
+    	/** Loaded by read-ahead and not used yet: the first hit is the
+    	 *  page's first real use, not a re-reference. */
+    	volatile boolean prefetched;
+    	/** Position in the policy's frame array (CLOCK). */
+    	int slot = -1;
+    	/** Arena buffer the page was read into, or -1. */
+    	int buffer = -1;
+    	/** Committed changes not written to disk yet (NO FORCE). */
+    	volatile boolean unflushed;
+    	/** End of the page's last update record in the log. */
+    	volatile long lsn;
+
+    	Frame(Page page) {
+    		this.page = page;
+    	}
+
+    	/** @return true if the page may be evicted (NO STEAL: it is clean,
+    	 *  and written if it has committed changes) */
+    	boolean isEvictable() {
+    		// Page.isDirty() returns null if clean
+    		return page.isDirty() == null && !unflushed;
+    	}
+    }
+
+    /**
+     * One partition of the page table. Readers use the concurrent map
+     * directly; adding and removing frames is done holding the stripe's
+     * monitor, so that a page is loaded at most once.
+     */
+    static class Stripe {
+    	final ConcurrentHashMap<PageId, Frame> frames = new ConcurrentHashMap<PageId, Frame>();
+    	final ReplacementPolicy policy;
+    	final Pool pool;
+
+    	Stripe(Pool pool, ReplacementPolicy policy) {
+    		this.pool = pool;
+    		this.policy = policy;
+    	}
+
+    	/** Add a frame; caller holds the stripe's monitor. */
+    	void add(PageId pid, Frame f) {
+    		frames.put(pid, f);
+    		policy.admit(f);
+    	}
+
+    	/** Remove a frame; caller holds the stripe's monitor. */
+    	Frame remove(PageId pid) {
+    		Frame f = frames.remove(pid);
+    		if (f != null)
+    			policy.remove(f);
+    		return f;
+    	}
+    }
+
+    /**
+     * A share of the BufferPool with its own capacity, replacement policy,
+     * stripes and frame arena. Pages of a table assigned to a named pool
+     * only compete for frames with the pages of the other tables in it;
+     * tables not assigned to one use the default pool.
+     */
+    static class Pool {
+    	final String name;
+    	final Stripe[] stripes;
+    	/** Pages resident in all of the pool's stripes together. */
+    	final AtomicInteger size = new AtomicInteger();
+    	final int limit;
+    	final FrameArena arena;
+    	final PoolStats stats = new PoolStats(this);
+
+    	Pool(String name, int numPages, String policy) {
+    		this.name = name;
+    		limit = numPages;
+    		arena = new FrameArena(numPages, getPageSize());
+    		int n = 1;
+    		while (n < NUM_STRIPES && n * 2 * MIN_STRIPE_FRAMES <= numPages)
+    			n *= 2;
+    		stripes = new Stripe[n];
+    		for (int i = 0; i < n; i++)
+    			stripes[i] = new Stripe(this, newPolicy(policy));
+    	}
+
+    	/** @return the stripe pid belongs to. */
+    	Stripe stripeFor(PageId pid) {
+    		int h = pid.hashCode();
+    		h ^= (h >>> 16);
+    		return stripes[h & (stripes.length - 1)];
+    	}
+    }
+
+    /** Pages loaded by read-ahead that no transaction has asked for yet,
+     *  and pages whose read-ahead is still in flight. */
+    ConcurrentHashMap<PageId, Boolean> m_prefetched = new ConcurrentHashMap<PageId, Boolean>();
+    ConcurrentHashMap<PageId, CountDownLatch> m_inFlight = new ConcurrentHashMap<PageId, CountDownLatch>();
+    ExecutorService m_ioExecutor;
+    ExecutorService m_cleaner;
+    final AtomicBoolean m_cleanScheduled = new AtomicBoolean();
+    /** Held for a whole cleaning pass. */
+    private final Object m_cleanLock = new Object();
+    /** Locks pages for the cleaner while it writes them. */
+    private final TransactionId m_cleanerTid = new TransactionId();
+    volatile boolean m_force = true;
+    final CommitGroup m_commits = new CommitGroup(this);
+    /** Where the resident page ids are saved, or null. */
+    File m_hotFile;
+    private Timer m_hotSaver;
+    volatile boolean m_steal = false;
+    /** Transactions some of whose uncommitted changes were written out. */
+    final ConcurrentHashMap<TransactionId, Boolean> m_stolen = new ConcurrentHashMap<TransactionId, Boolean>();
+
+    final AtomicLong m_prefetchIssued = new AtomicLong();
+    final AtomicLong m_prefetchHits = new AtomicLong();
+    final AtomicLong m_prefetchWasted = new AtomicLong();
+    final AtomicLong m_prefetchSkipped = new AtomicLong();
+    /** Bumped after every page write; see {@link ScanRing}. */
+    final AtomicLong m_writes = new AtomicLong();
+    final AtomicLong m_ringReads = new AtomicLong();
     
     
+    /**
+     * @return the database-wide default page size, used by tables that are
+     *   not given a page size of their own (see {@link HeapFile#getPageSize})
+     */
+    public static int getPageSize() {
+    	return pageSize;
+    }
+
+    /**
+     * Set the database-wide default page size. Only affects HeapFiles
+     * created afterwards.
+     */
+    public static void setPageSize(int size) {
+    	if (size <= 0)
+    		throw new IllegalArgumentException("page size must be positive");
+    	pageSize = size;
+    }
+
+    /** Restore the default page size of {@link #PAGE_SIZE} bytes. */
+    public static void resetPageSize() {
+    	pageSize = PAGE_SIZE;
+    }
+
+    /**
+     * Set the replacement policy used by BufferPools created without one,
+     * e.g. by Database.resetBufferPool.
+     *
+     * @see #BufferPool(int, String)
+     */
+    public static void setDefaultPolicy(String policy) {
+    	newPolicy(policy); // reject unknown names now
+    	defaultPolicy = policy;
+    }
+
+    /** @return the replacement policy used by BufferPools created without one. */
+    public static String getDefaultPolicy() {
+    	return defaultPolicy;
+    }
+
+    /** @return a new instance of the named replacement policy. */
+    static ReplacementPolicy newPolicy(String name) {
+    	if (name.equalsIgnoreCase("clock"))
+    		return new ClockPolicy();
+    	if (name.equalsIgnoreCase("lru"))
+    		return new LruPolicy();
+    	throw new IllegalArgumentException("unknown replacement policy " + name);
+    }
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+    	this(numPages, defaultPolicy);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks pages
+     * to evict with the named replacement policy: "clock" (the default) or
+     * "lru".
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy name of the replacement policy
+     */
+    public BufferPool(int numPages, String policy) {
+    	this(numPages, policy, new LockManager());
+    }
+
+    /**
+     * Creates a BufferPool whose transactions lock through the given lock
+     * manager, e.g. one shared with another pool or set up with its own
+     * shard count.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy name of the replacement policy
+     * @param locks the lock manager
+     */
+    public BufferPool(int numPages, String policy, LockManager locks) {
         // some code goes here
-    	m_pgHash = new ConcurrentHashMap<PageId, Page>();
-    	m_limit = numPages;
-    	evictMap = new LinkedHashMap<PageId, Boolean>(numPages/2,0.75f,true);
-    	PLock.reset();
+    	m_default = new Pool(DEFAULT_POOL, numPages, policy);
+    	m_pools.put(DEFAULT_POOL, m_default);
+    	m_stripes = m_default.stripes;
+    	m_locks = locks;
+    }
+
+    /** @return the lock manager of this pool's transactions */
+    public LockManager getLockManager() {
+    	return m_locks;
+    }
+
+    /**
+     * Create a named pool of numPages pages, with its own replacement
+     * policy, for the tables later assigned to it with
+     * {@link #assignTable}. Its pages are not counted against the
+     * capacity of the default pool.
+     *
+     * @throws IllegalArgumentException if the name is taken or the policy
+     *   unknown
+     */
+    public synchronized void addPool(String name, int numPages, String policy) {
+    	if (m_pools.containsKey(name))
+    		throw new IllegalArgumentException("buffer pool " + name + " already exists");
+    	Pool p = new Pool(name, numPages, policy);
+    	Stripe[] all = new Stripe[m_stripes.length + p.stripes.length];
+    	System.arraycopy(m_stripes, 0, all, 0, m_stripes.length);
+    	System.arraycopy(p.stripes, 0, all, m_stripes.length, p.stripes.length);
+    	m_stripes = all;
+    	m_pools.put(name, p);
+    	if (m_published)
+    		Metrics.publish(p);
+    }
+
+    /**
+     * Cache the pages of a table in the named pool from now on. Call this
+     * before any page of the table is read.
+     *
+     * @throws NoSuchElementException if there is no such pool
+     */
+    public void assignTable(int tableId, String pool) {
+    	Pool p = m_pools.get(pool);
+    	if (p == null)
+    		throw new NoSuchElementException("no buffer pool named " + pool);
+    	if (p == m_default)
+    		m_tablePools.remove(tableId);
+    	else
+    		m_tablePools.put(tableId, p);
+    }
+
+    /** @return the pool the table's pages are cached in. */
+    Pool poolFor(int tableId) {
+    	if (m_tablePools.isEmpty())
+    		return m_default;
+    	Pool p = m_tablePools.get(tableId);
+    	return p != null ? p : m_default;
     }
 
     /**
@@ -60,27 +389,602 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-    	PLock.acquireLock(tid, pid, perm);
+    	m_locks.acquireLock(tid, pid, perm);
+    	return fetch(pid);
+    }
 
-    	if (m_pgHash.size() >= m_limit && !m_pgHash.containsKey(pid))
-    		evictPage();
-    	
-    	if (evictMap.containsKey(pid))
-    		evictMap.get(pid);
-    	else
-    		evictMap.put(pid, false);
-    	
-    	
-    	if (m_pgHash.containsKey(pid))
-    		return m_pgHash.get(pid);
+    /**
+     * Retrieve a page to insert or delete single tuples of. The transaction
+     * gets an IX lock on the page instead of an X lock, and locks each
+     * tuple it changes with {@link #lockRecord} or {@link #tryLockRecord},
+     * so transactions changing different tuples of the page do not wait
+     * for each other.
+     */
+    Page getPageForUpdate(TransactionId tid, PageId pid)
+        throws TransactionAbortedException, DbException {
+    	m_locks.acquireUpdateLock(tid, pid);
+    	return fetch(pid);
+    }
 
+    /** Locks a tuple of a page got with getPageForUpdate; may block. */
+    void lockRecord(TransactionId tid, RecordId rid) throws TransactionAbortedException {
+    	m_locks.acquireRecordLock(tid, rid);
+    }
 
-    	Page pg;
+    /** @return false if another transaction holds the tuple's lock */
+    boolean tryLockRecord(TransactionId tid, RecordId rid) {
+    	return m_locks.gotRecordLock(tid, rid);
+    }
+
+    /** @return false if tid's lock on the page or its table covers its tuples */
+    boolean locksTuples(TransactionId tid, PageId pid) {
+    	return m_locks.needsRecordLocks(tid, pid);
+    }
+
+    /** Look up a page the caller has locked, reading it in if needed. */
+    private Page fetch(PageId pid) throws DbException {
+    	Stripe s = stripeFor(pid);
+    	Frame f = s.frames.get(pid);
+    	if (f != null) {
+    		touch(s, f);
+    		return f.page;
+    	}
+
+    	// don't read a page twice: wait for a read-ahead already loading it
+    	CountDownLatch loading = m_inFlight.get(pid);
+    	if (loading != null) {
+    		try {
+    			loading.await();
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		}
+    	}
+
+    	// make room first: eviction may lock other stripes, so it must not
+    	// happen while we hold ours
+    	reserveFrame(s);
+    	boolean used = false;
+    	try {
+    		synchronized (s) {
+    			// also catches a read-ahead, or another transaction, that
+    			// loaded the page since the lookup above
+    			f = s.frames.get(pid);
+    			if (f != null) {
+    				touch(s, f);
+    				return f.page;
+    			}
+    			f = load(pid);
+    			s.add(pid, f);
+    			used = true;
+    			missed(s.pool, pid);
+    			return f.page;
+    		}
+    	} finally {
+    		if (!used)
+    			s.pool.size.decrementAndGet();
+    	}
+    }
+
+    /**
+     * Retrieve a page for a large sequential scan. Pages that are already
+     * in the pool are used as usual; any other page is read into the
+     * scan's private ring instead of the pool, so the scan neither evicts
+     * pages nor fills the pool with pages nobody will read again.
+     * Only read-only requests use the ring.
+     *
+     * @param ring the scan's ring, from {@link #scanRing}; null to read
+     *   through the pool as usual
+     */
+    Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException {
+    	if (ring == null || perm != Permissions.READ_ONLY)
+    		return getPage(tid, pid, perm);
+    	m_locks.acquireLock(tid, pid, perm);
+
+    	Stripe s = stripeFor(pid);
+    	Frame f = s.frames.get(pid);
+    	if (f != null) {
+    		touch(s, f);
+    		return f.page;
+    	}
+    	Page pg = ring.get(pid);
+    	if (pg != null) {
+    		s.pool.stats.hits.increment();
+    		tableStats(pid.getTableId()).hits.increment();
+    		return pg;
+    	}
     	DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
-    	
+    	long start = System.nanoTime();
     	pg = file.readPage(pid);
-    	m_pgHash.put(pid, pg);
-        return pg;
+    	readDone(pid, start);
+    	m_ringReads.incrementAndGet();
+    	missed(s.pool, pid);
+    	ring.put(pid, pg);
+    	return pg;
+    }
+
+    /**
+     * @param tableId the table the scan reads
+     * @param tablePages the number of pages the scan will read
+     * @return a ring for a sequential scan of that many pages, or null if
+     *   the scan should read through the pool: a table that fits in its
+     *   pool may as well be cached there, and a pool smaller than a ring
+     *   would more than double its memory by handing one out.
+     */
+    ScanRing scanRing(int tableId, int tablePages) {
+    	int limit = poolFor(tableId).limit;
+    	if (tablePages <= limit || limit < ScanRing.RING_PAGES)
+    		return null;
+    	return new ScanRing(this);
+    }
+
+    /**
+     * Read a page into a new frame, offering the file an arena buffer to
+     * read it into. The caller has reserved the frame.
+     */
+    private Frame load(PageId pid) {
+    	DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+    	FrameArena arena = poolFor(pid.getTableId()).arena;
+    	int b = arena.allocate();
+    	long start = System.nanoTime();
+    	if (b < 0) {
+    		Frame f = new Frame(file.readPage(pid));
+    		readDone(pid, start);
+    		return f;
+    	}
+    	Page pg;
+    	boolean taken;
+    	s_readFrame.set(arena.frame(b));
+    	try {
+    		pg = file.readPage(pid);
+    	} finally {
+    		taken = s_readFrame.get() == null;
+    		s_readFrame.set(null);
+    	}
+    	readDone(pid, start);
+    	Frame f = new Frame(pg);
+    	if (taken && pg != null)
+    		f.buffer = b;
+    	else
+    		arena.release(b);
+    	return f;
+    }
+
+    /**
+     * Called by a DbFile's readPage to find out whether the page should be
+     * read into a buffer pool frame rather than memory of its own.
+     *
+     * @param size bytes the page needs
+     * @return the frame to read the page into and keep it in, or null. A
+     *   frame is handed out once; only the pool's own reads get one.
+     */
+    static ByteBuffer takeReadFrame(int size) {
+    	ByteBuffer frame = s_readFrame.get();
+    	if (frame == null || frame.capacity() < size)
+    		return null;
+    	s_readFrame.set(null);
+    	return frame;
+    }
+
+    /**
+     * Give back the arena buffer of a frame that has just left the pool.
+     * A transaction holding a lock on the page may still be reading it, so
+     * such a page first gets a copy of its bytes.
+     */
+    private void release(Stripe s, Frame f) {
+    	if (f.buffer < 0)
+    		return;
+    	if (m_locks.isLocked(f.page.getId()))
+    		((HeapPage) f.page).detach();
+    	s.pool.arena.release(f.buffer);
+    	f.buffer = -1;
+    }
+
+    /** Report a hit on frame f to the replacement policy and statistics. */
+    private void touch(Stripe s, Frame f) {
+    	s.pool.stats.hits.increment();
+    	tableStats(f.page.getId().getTableId()).hits.increment();
+    	if (f.prefetched)
+    		f.prefetched = false;
+    	else
+    		s.policy.touch(f);
+    }
+
+    /** @return the statistics of a table's pages, created on first use. */
+    PageStats tableStats(int tableId) {
+    	PageStats st = m_tableStats.get(tableId);
+    	if (st == null) {
+    		PageStats fresh = new PageStats();
+    		st = m_tableStats.putIfAbsent(tableId, fresh);
+    		if (st == null) {
+    			st = fresh;
+    			if (m_published)
+    				Metrics.publish(tableId, st);
+    		}
+    	}
+    	return st;
+    }
+
+    private void missed(Pool p, PageId pid) {
+    	p.stats.misses.increment();
+    	tableStats(pid.getTableId()).misses.increment();
+    }
+
+    private void evicted(Pool p, PageId pid) {
+    	p.stats.evictions.increment();
+    	tableStats(pid.getTableId()).evictions.increment();
+    }
+
+    /** Record the read of pid, which started at start (System.nanoTime). */
+    private void readDone(PageId pid, long start) {
+    	long nanos = System.nanoTime() - start;
+    	int bytes = pageBytes(pid.getTableId());
+    	poolFor(pid.getTableId()).stats.read(bytes, nanos);
+    	tableStats(pid.getTableId()).read(bytes, nanos);
+    }
+
+    /**
+     * Record a write of pages consecutive pages starting with pid, which
+     * started at start (System.nanoTime).
+     */
+    private void wrote(PageId pid, int pages, long start) {
+    	long nanos = System.nanoTime() - start;
+    	long bytes = (long) pages * pageBytes(pid.getTableId());
+    	poolFor(pid.getTableId()).stats.wrote(pages, bytes, nanos);
+    	tableStats(pid.getTableId()).wrote(pages, bytes, nanos);
+    	m_writes.incrementAndGet();
+    }
+
+    private static int pageBytes(int tableId) {
+    	DbFile f = Database.getCatalog().getDbFile(tableId);
+    	return f instanceof HeapFile ? ((HeapFile) f).getPageSize() : getPageSize();
+    }
+
+    /**
+     * Publish the statistics of this pool, its tables and page locking as
+     * JMX MBeans (see {@link Metrics}), now and as pools and tables are
+     * added. The Database does this for its pool.
+     */
+    public void publishStats() {
+    	m_published = true;
+    	for (Pool p : m_pools.values())
+    		Metrics.publish(p);
+    	for (Map.Entry<Integer, PageStats> e : m_tableStats.entrySet())
+    		Metrics.publish(e.getKey(), e.getValue());
+    	Metrics.publishLocks(m_locks.m_stats);
+    }
+
+    /** @return a report of the statistics, for the console */
+    public String statsReport() {
+    	return Metrics.report(this);
+    }
+
+    /** @return the stripe of the page table that pid belongs to. */
+    Stripe stripeFor(PageId pid) {
+    	return poolFor(pid.getTableId()).stripeFor(pid);
+    }
+
+    /** @return the frame holding pid, or null if it is not resident. */
+    Frame frameFor(PageId pid) {
+    	return stripeFor(pid).frames.get(pid);
+    }
+
+    /**
+     * Claim one frame of the capacity of s's pool, evicting pages
+     * (preferably from stripe s) until there is room. The caller must
+     * either install a page or give the frame back by decrementing the
+     * pool's size.
+     */
+    private void reserveFrame(Stripe s) throws DbException {
+    	AtomicInteger size = s.pool.size;
+    	while (true) {
+    		int n = size.get();
+    		if (n < s.pool.limit) {
+    			if (size.compareAndSet(n, n + 1))
+    				return;
+    		} else {
+    			evictPage(s);
+    		}
+    	}
+    }
+
+    /**
+     * Claim one frame of p's capacity if one is free, without evicting.
+     */
+    private boolean tryReserveFrame(Pool p) {
+    	while (true) {
+    		int n = p.size.get();
+    		if (n >= p.limit)
+    			return false;
+    		if (p.size.compareAndSet(n, n + 1))
+    			return true;
+    	}
+    }
+
+    /**
+     * Asynchronously load the specified page into the buffer pool, ahead of
+     * a scan asking for it. No locks are acquired: the transaction that
+     * eventually reads the page still goes through {@link #getPage}, which
+     * takes the lock at that point. Read-ahead never evicts; the request is
+     * dropped if the page is already resident or the pool has no free
+     * frames.
+     *
+     * @param pid the ID of the page to prefetch
+     */
+    public void prefetchPage(final PageId pid) {
+    	Pool p = poolFor(pid.getTableId());
+    	if (frameFor(pid) != null || p.size.get() >= p.limit) {
+    		m_prefetchSkipped.incrementAndGet();
+    		return;
+    	}
+    	final CountDownLatch done = new CountDownLatch(1);
+    	if (m_inFlight.putIfAbsent(pid, done) != null)
+    		return;
+    	m_prefetchIssued.incrementAndGet();
+    	ioExecutor().execute(new Runnable() {
+    		public void run() {
+    			preload(pid, done, true);
+    		}
+    	});
+    }
+
+    /**
+     * Load a page into a free frame, if the pool has one and the page is
+     * not resident yet. The page is read without a lock, so the copy is
+     * dropped if the pool wrote any page meanwhile: it may be an older
+     * version than one a transaction wrote and the pool then evicted.
+     *
+     * @param done the page's latch in m_inFlight, released when done
+     * @param prefetched whether the page is loaded for a scan's read-ahead
+     * @return false if the pool had no free frame
+     */
+    private boolean preload(PageId pid, CountDownLatch done, boolean prefetched) {
+    	try {
+    		Stripe s = stripeFor(pid);
+    		if (!tryReserveFrame(s.pool))
+    			return false;
+    		Frame f = null;
+    		boolean used = false;
+    		try {
+    			// read the counter first: a write that finishes after this
+    			// point may have made the copy we read stale
+    			long at = m_writes.get();
+    			f = load(pid);
+    			synchronized (s) {
+    				if (f.page != null && !s.frames.containsKey(pid) && m_writes.get() == at) {
+    					f.prefetched = prefetched;
+    					s.add(pid, f);
+    					if (prefetched)
+    						m_prefetched.put(pid, true);
+    					used = true;
+    				}
+    			}
+    		} finally {
+    			if (!used) {
+    				if (f != null)
+    					release(s, f);
+    				s.pool.size.decrementAndGet();
+    			}
+    		}
+    	} catch (RuntimeException e) {
+    		// the table may have been dropped; preloading is best effort
+    	} finally {
+    		m_inFlight.remove(pid);
+    		done.countDown();
+    	}
+    	return true;
+    }
+
+    /**
+     * Keep the ids of the pool's pages in f: save them every periodMs
+     * milliseconds (if positive) and when the log shuts down, so that
+     * {@link #loadHotPages} can warm a pool after a restart.
+     *
+     * @param f the file to use, or null to stop saving
+     */
+    public synchronized void setHotPageFile(final File f, long periodMs) {
+    	if (m_hotSaver != null) {
+    		m_hotSaver.cancel();
+    		m_hotSaver = null;
+    	}
+    	m_hotFile = f;
+    	if (f == null || periodMs <= 0)
+    		return;
+    	m_hotSaver = new Timer("simpledb-hot-pages", true);
+    	m_hotSaver.schedule(new TimerTask() {
+    		public void run() {
+    			try {
+    				saveHotPages();
+    			} catch (IOException e) {
+    				e.printStackTrace();
+    			}
+    		}
+    	}, periodMs, periodMs);
+    }
+
+    /** Save the ids of the resident pages to the hot page file, if set. */
+    public void saveHotPages() throws IOException {
+    	File f = m_hotFile;
+    	if (f != null)
+    		HotPageFile.write(f, hotPages());
+    }
+
+    /**
+     * Start loading the pages listed in the hot page file in the
+     * background. The list is in replacement policy order, so the pages
+     * listed first that fit in their pools are kept, and those are read in
+     * file order. Pages already resident are skipped.
+     *
+     * @return the number of pages listed
+     */
+    public int loadHotPages() throws IOException {
+    	if (m_hotFile == null)
+    		return 0;
+    	List<PageId> listed = HotPageFile.read(m_hotFile);
+    	final List<PageId> pids = hotPagesToLoad(listed);
+    	if (!pids.isEmpty()) {
+    		ioExecutor().execute(new Runnable() {
+    			public void run() {
+    				for (PageId pid : pids) {
+    					if (frameFor(pid) != null)
+    						continue;
+    					CountDownLatch done = new CountDownLatch(1);
+    					if (m_inFlight.putIfAbsent(pid, done) != null)
+    						continue;
+    					if (!preload(pid, done, false))
+    						break;
+    				}
+    			}
+    		});
+    	}
+    	return listed.size();
+    }
+
+    /**
+     * @return the first pages of a hot page list that fit in their pools,
+     *   sorted into file order
+     */
+    List<PageId> hotPagesToLoad(List<PageId> listed) {
+    	Map<Pool, Integer> taken = new HashMap<Pool, Integer>();
+    	List<PageId> pids = new ArrayList<PageId>();
+    	for (PageId pid : listed) {
+    		Pool p = poolFor(pid.getTableId());
+    		Integer n = taken.get(p);
+    		int now = n == null ? 0 : n;
+    		if (now < p.limit) {
+    			taken.put(p, now + 1);
+    			pids.add(pid);
+    		}
+    	}
+    	Collections.sort(pids, PID_ORDER);
+    	return pids;
+    }
+
+    /**
+     * @return the ids of the resident pages, those the replacement policy
+     *   would keep longest first. Stripes are interleaved.
+     */
+    List<PageId> hotPages() {
+    	List<List<Frame>> orders = new ArrayList<List<Frame>>();
+    	for (Stripe s : m_stripes) {
+    		List<Frame> order = new ArrayList<Frame>();
+    		synchronized (s) {
+    			s.policy.order(order);
+    		}
+    		orders.add(order);
+    	}
+    	List<PageId> pids = new ArrayList<PageId>();
+    	boolean more = true;
+    	for (int i = 0; more; i++) {
+    		more = false;
+    		for (List<Frame> order : orders) {
+    			if (i < order.size()) {
+    				pids.add(order.get(i).page.getId());
+    				more = true;
+    			}
+    		}
+    	}
+    	return pids;
+    }
+
+    /**
+     * Prefetch a page for a scan: into its ring if it has one, otherwise
+     * into the pool. Pages already in the pool are not read again.
+     */
+    void prefetchPage(PageId pid, ScanRing ring) {
+    	if (ring == null) {
+    		prefetchPage(pid);
+    		return;
+    	}
+    	if (frameFor(pid) != null) {
+    		m_prefetchSkipped.incrementAndGet();
+    		return;
+    	}
+    	if (ring.prefetch(pid, ioExecutor()))
+    		m_prefetchIssued.incrementAndGet();
+    }
+
+    /** @return true if a read-ahead of pid, into ring or the pool, is still reading it */
+    boolean prefetchInFlight(PageId pid, ScanRing ring) {
+    	return ring == null ? m_inFlight.containsKey(pid) : ring.loading(pid);
+    }
+
+    /** Ring-aware {@link #claimPrefetched(PageId)}. */
+    boolean claimPrefetched(PageId pid, ScanRing ring) {
+    	if (ring == null)
+    		return claimPrefetched(pid);
+    	if (ring.claimPrefetched(pid)) {
+    		m_prefetchHits.incrementAndGet();
+    		return true;
+    	}
+    	return false;
+    }
+
+    /**
+     * Called by a scan when it reaches a page it previously prefetched.
+     * @return true if the prefetched page is resident, i.e. read-ahead saved
+     *   a synchronous read; false if it was evicted or never loaded.
+     */
+    boolean claimPrefetched(PageId pid) {
+    	if (m_prefetched.remove(pid) != null) {
+    		m_prefetchHits.incrementAndGet();
+    		return true;
+    	}
+    	return false;
+    }
+
+    /** @return the number of read-ahead requests issued to the I/O executor. */
+    public long getPrefetchIssued() {
+    	return m_prefetchIssued.get();
+    }
+
+    /** @return the number of prefetched pages a scan later found resident. */
+    public long getPrefetchHits() {
+    	return m_prefetchHits.get();
+    }
+
+    /** @return the number of prefetched pages evicted before anyone used them. */
+    public long getPrefetchWasted() {
+    	return m_prefetchWasted.get();
+    }
+
+    /** @return the number of pages scans read into their rings rather
+     *  than into the pool. */
+    public long getScanRingReads() {
+    	return m_ringReads.get();
+    }
+
+    /** @return the number of read-ahead requests dropped because the page
+     *  was resident or the pool was full. */
+    public long getPrefetchSkipped() {
+    	return m_prefetchSkipped.get();
+    }
+
+    synchronized ExecutorService ioExecutor() {
+    	if (m_ioExecutor == null)
+    		m_ioExecutor = daemonExecutor(PREFETCH_THREADS, "simpledb-readahead");
+    	return m_ioExecutor;
+    }
+
+    private synchronized ExecutorService cleanerExecutor() {
+    	if (m_cleaner == null)
+    		m_cleaner = daemonExecutor(1, "simpledb-cleaner");
+    	return m_cleaner;
+    }
+
+    private static ExecutorService daemonExecutor(int threads, final String name) {
+    	ThreadPoolExecutor ex = new ThreadPoolExecutor(threads, threads,
+    			1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+    			new ThreadFactory() {
+    				public Thread newThread(Runnable r) {
+    					Thread t = new Thread(r, name);
+    					t.setDaemon(true);
+    					return t;
+    				}
+    			});
+    	// idle pools (e.g. ones replaced by resetBufferPool) keep no threads
+    	ex.allowCoreThreadTimeOut(true);
+    	return ex;
     }
 
     /**
@@ -95,12 +999,23 @@ public class BufferPool {
     public void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for proj1
-    	PLock.releaseLock(tid, pid);
+    	m_locks.releaseLock(tid, pid);
+    }
+
+    /**
+     * Lock a whole table for a transaction, which then reads (or, with
+     * READ_WRITE, writes) its pages without locking each one.
+     * Will block, like getPage, while another transaction holds a
+     * conflicting lock on the table or on one of its pages.
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+        throws TransactionAbortedException {
+    	m_locks.lockTable(tid, tableId, perm);
     }
 
     /** Releases all locks associated with this transaction **/
     public void releaseAllPageLocks(TransactionId tid){
-    	PLock.releaseByTrans(tid);    	
+    	m_locks.releaseByTrans(tid);    	
     }
     
     /**
@@ -118,7 +1033,7 @@ public class BufferPool {
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for proj1
-        return PLock.holdsLock(tid, p);
+        return m_locks.holdsLock(tid, p);
     }
 
     /**
@@ -132,14 +1047,23 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for proj1
+    	// a transaction run without a Transaction has no COMMIT or ABORT
+    	// record yet if it logged anything
+    	LogFile log = Database.getLogFile();
     	if (commit){
     		flushPages(tid);
+    		if (log.isLive(tid))
+    			log.logCommit(tid);
+    		m_stolen.remove(tid);
     	} else {
     		//abort
+    		// undo stolen pages first, so their cached copies are dropped
+    		if (log.isLive(tid))
+    			log.logAbort(tid);
     		//revert any changes made by the transaction by restoring the page to its on-disk state
     		revertPages(tid);
     	}
-    	PLock.releaseByTrans(tid);
+    	m_locks.releaseByTrans(tid);
     }
 
     /**
@@ -166,7 +1090,24 @@ public class BufferPool {
     		Page p = pgs.get(i);
         	p.markDirty(true, tid);
         	//Required?: (since pgs could contain a new page).
-        	m_pgHash.put(p.getId(), p);
+        	putPage(p);
+    	}
+    }
+
+    /**
+     * Make p the cached copy of its page, adding it to the pool if it is not
+     * resident. Never evicts.
+     */
+    private void putPage(Page p) {
+    	Stripe s = stripeFor(p.getId());
+    	synchronized (s) {
+    		Frame f = s.frames.get(p.getId());
+    		if (f != null) {
+    			f.page = p;
+    		} else {
+    			s.add(p.getId(), new Frame(p));
+    			s.pool.size.incrementAndGet();
+    		}
     	}
     }
 
@@ -191,6 +1132,8 @@ public class BufferPool {
     	DbFile f = Database.getCatalog().getDbFile(tblId);
     	Page pg = f.deleteTuple(tid, t);
         pg.markDirty(true, tid);
+        // the page may have been stolen while it was being changed
+        putPage(pg);
     }
 
     /**
@@ -198,126 +1141,478 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for proj1
-    	Iterator<PageId> it = m_pgHash.keySet().iterator();
-    	while (it.hasNext()){
-    		flushPage(it.next());    		
+    	for (Stripe s : m_stripes) {
+    		Iterator<PageId> it = s.frames.keySet().iterator();
+    		while (it.hasNext()){
+    			flushPage(it.next());
+    		}
     	}
     }
 
+    /**
+     * Write a page image from the log, an undo's before image or a redo's
+     * after image, straight to its file. The write is counted like the
+     * pool's own, so ring read-ahead copies read before it are dropped.
+     * Cached copies are left to the caller.
+     */
+    public void writeFromLog(Page p) throws IOException {
+    	PageId pid = p.getId();
+    	long start = System.nanoTime();
+    	Database.getCatalog().getDbFile(pid.getTableId()).writePage(p);
+    	wrote(pid, 1, start);
+    }
+
     /** Remove the specific page id from the buffer pool.
         Needed by the recovery manager to ensure that the
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
 	// not necessary for proj1
-    	if(!m_pgHash.containsKey(pid)){
-    		//Todo? Change into exception?
-    		System.out.println("Tried to discard a page that doesn't exist in the hash.");
-    		assert(true==false);
+    	Stripe s = stripeFor(pid);
+    	synchronized (s) {
+    		Frame f = s.remove(pid);
+    		if (f == null) {
+    			//Todo? Change into exception?
+    			System.out.println("Tried to discard a page that doesn't exist in the hash.");
+    			assert(true==false);
+    			return;
+    		}
+    		release(s, f);
+    		s.pool.size.decrementAndGet();
     	}
-    	if(!evictMap.containsKey(pid)){
-    		//Todo? Change into exception?
-    		System.out.println("Tried to discard a page that doesn't exist in the hash.");
-    		assert(true==false);
+    	if (m_prefetched.remove(pid) != null)
+    		m_prefetchWasted.incrementAndGet();
+    }
+
+    /** Remove every page from the buffer pool, e.g. after recovery has
+        rewritten pages on disk. */
+    public void discardAllPages() {
+    	for (Stripe s : m_stripes) {
+    		synchronized (s) {
+    			for (PageId pid : new ArrayList<PageId>(s.frames.keySet())) {
+    				release(s, s.remove(pid));
+    				s.pool.size.decrementAndGet();
+    			}
+    		}
     	}
-    	m_pgHash.remove(pid);
-    	evictMap.remove(pid);
+    	m_prefetched.clear();
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for proj1
-    	Page p = m_pgHash.get(pid);
+    	Frame fr = frameFor(pid);
+    	if (fr == null)
+    		return;
+    	Page p = fr.page;
+    	// write-ahead: the page's update record goes to disk first
+    	LogFile log = Database.getLogFile();
+    	if (tupleLocked(p)) {
+    		// transactions changing it under tuple locks cannot be logged
+    		// as one: write just the committed tuples, and keep it dirty.
+    		// The monitor orders the write with those of commitCopy.
+    		synchronized (p) {
+    			HeapPage image = ((HeapPage) p).committedImage(null);
+    			log.forceThrough(fr.lsn);
+    			long start = System.nanoTime();
+    			Database.getCatalog().getDbFile(pid.getTableId()).writePage(image);
+    			wrote(pid, 1, start);
+    		}
+    		return;
+    	}
+    	TransactionId dirtier = p.isDirty();
+    	if (dirtier != null) {
+    		fr.lsn = log.logWrite(dirtier, p.getBeforeImage(), p);
+    		m_stolen.put(dirtier, Boolean.TRUE);
+    	}
+    	log.forceThrough(fr.lsn);
     	//figure out while file the page is in.
     	DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+    	long start = System.nanoTime();
     	f.writePage(p);
+    	wrote(pid, 1, start);
+    	fr.unflushed = false;
     	p.markDirty(false, null);	
     }
 
+    /**
+     * Commit tid's changes to a page others may be changing under tuple
+     * locks: log (and with FORCE, write) a copy without their changes.
+     * This holds the page's monitor, so that the copies of one page are
+     * logged and written in commit order.
+     */
+    private void commitCopy(TransactionId tid, Frame fr, HeapPage hp, boolean force) throws IOException {
+    	LogFile log = Database.getLogFile();
+    	synchronized (hp) {
+    		Page before = hp.getBeforeImage();
+    		HeapPage image = hp.commit(tid);
+    		fr.lsn = log.logWrite(tid, before, image);
+    		if (!force) {
+    			fr.unflushed = true;
+    			return;
+    		}
+    		log.forceThrough(fr.lsn);
+    		PageId pid = hp.getId();
+    		long start = System.nanoTime();
+    		Database.getCatalog().getDbFile(pid.getTableId()).writePage(image);
+    		wrote(pid, 1, start);
+    		fr.unflushed = false;
+    	}
+    }
+
+    /**
+     * @return true if p has uncommitted changes made under tuple locks,
+     *         which are committed and undone per transaction, and never
+     *         stolen
+     */
+    private static boolean tupleLocked(Page p) {
+    	return p instanceof HeapPage && ((HeapPage) p).hasTupleChanges();
+    }
+
+    /**
+     * Write the pages of the given frames, sorted by table and page number
+     * so that consecutive pages of a HeapFile go out in a single write. The
+     * log is forced through the pages' update records first.
+     */
+    void writeFrames(List<Frame> frames) throws IOException {
+    	if (frames.isEmpty())
+    		return;
+    	long lsn = 0;
+    	for (Frame fr : frames)
+    		lsn = Math.max(lsn, fr.lsn);
+    	Database.getLogFile().forceThrough(lsn);
+
+    	Collections.sort(frames, PAGE_ORDER);
+    	for (int i = 0, j; i < frames.size(); i = j) {
+    		PageId first = frames.get(i).page.getId();
+    		DbFile file = Database.getCatalog().getDbFile(first.getTableId());
+    		j = i + 1;
+    		if (file instanceof HeapFile) {
+    			while (j < frames.size() && frames.get(j).page.getId().getTableId() == first.getTableId()
+    					&& frames.get(j).page.getId().pageNumber() == first.pageNumber() + (j - i))
+    				j++;
+    		}
+    		long start = System.nanoTime();
+    		if (j - i == 1) {
+    			file.writePage(frames.get(i).page);
+    		} else {
+    			List<Page> run = new ArrayList<Page>(j - i);
+    			for (int k = i; k < j; k++)
+    				run.add(frames.get(k).page);
+    			((HeapFile) file).writePages(run);
+    		}
+    		wrote(first, j - i, start);
+    		for (int k = i; k < j; k++)
+    			frames.get(k).unflushed = false;
+    	}
+    }
+
+    /** Orders page ids by table, then page number: file order. */
+    private static final Comparator<PageId> PID_ORDER = new Comparator<PageId>() {
+    	public int compare(PageId x, PageId y) {
+    		if (x.getTableId() != y.getTableId())
+    			return x.getTableId() < y.getTableId() ? -1 : 1;
+    		return x.pageNumber() - y.pageNumber();
+    	}
+    };
+
+    private static final Comparator<Frame> PAGE_ORDER = new Comparator<Frame>() {
+    	public int compare(Frame a, Frame b) {
+    		return PID_ORDER.compare(a.page.getId(), b.page.getId());
+    	}
+    };
+
+    /**
+     * Write every page with committed changes that are not on disk yet,
+     * skipping pages a transaction has locked for writing. The cleaner
+     * holds a shared lock on each page it writes, so the page cannot change
+     * while it is being written.
+     *
+     * @return the number of pages written
+     */
+    int cleanPages() throws IOException {
+    	synchronized (m_cleanLock) {
+    		List<Frame> batch = new ArrayList<Frame>();
+    		try {
+    			for (Stripe s : m_stripes) {
+    				for (Frame fr : s.frames.values()) {
+    					if (fr.unflushed && m_locks.gotLock(m_cleanerTid, fr.page.getId(), Permissions.READ_ONLY)
+    							&& fr.unflushed && fr.page.isDirty() == null)
+    						batch.add(fr);
+    				}
+    			}
+    			writeFrames(batch);
+    		} finally {
+    			m_locks.releaseByTrans(m_cleanerTid);
+    		}
+    		return batch.size();
+    	}
+    }
+
+    /** @return true if some page has committed changes not on disk yet. */
+    private boolean hasUnflushed() {
+    	for (Stripe s : m_stripes)
+    		for (Frame fr : s.frames.values())
+    			if (fr.unflushed)
+    				return true;
+    	return false;
+    }
+
+    /** Have the cleaner write out committed pages shortly. */
+    private void scheduleClean() {
+    	if (!m_cleanScheduled.compareAndSet(false, true))
+    		return;
+    	cleanerExecutor().execute(new Runnable() {
+    		public void run() {
+    			try {
+    				// let more commits join the batch
+    				Thread.sleep(CLEAN_DELAY_MS);
+    			} catch (InterruptedException e) {
+    				Thread.currentThread().interrupt();
+    			}
+    			m_cleanScheduled.set(false);
+    			try {
+    				cleanPages();
+    			} catch (IOException e) {
+    				e.printStackTrace();
+    			}
+    			// pages locked by writers were skipped; come back for them
+    			if (hasUnflushed())
+    				scheduleClean();
+    		}
+    	});
+    }
+
+    /**
+     * Choose whether commit writes a transaction's pages to disk (FORCE,
+     * the default), or only logs them and leaves writing them to the
+     * background cleaner (NO FORCE). Either way the log is forced at commit.
+     */
+    public void setForce(boolean force) {
+    	m_force = force;
+    }
+
+    /** @return true if pages are written at commit. */
+    public boolean isForce() {
+    	return m_force;
+    }
+
+    /**
+     * Choose whether a page with uncommitted changes may be written out and
+     * evicted when the pool has no other page to evict (STEAL), or the
+     * eviction fails (NO STEAL, the default).
+     */
+    public void setSteal(boolean steal) {
+    	m_steal = steal;
+    }
+
+    /** @return true if dirty pages may be evicted. */
+    public boolean isSteal() {
+    	return m_steal;
+    }
+
+    /**
+     * Forget that pages of tid were stolen; called when it is rolled back.
+     * @return true if any were
+     */
+    boolean forgetStolen(TransactionId tid) {
+    	return m_stolen.remove(tid) != null;
+    }
+
     /** Revert all pages of the specified transaction to oldData **/
-    public synchronized void revertPages(TransactionId tid) throws IOException {
-    	Iterator<Page> it = m_pgHash.values().iterator();
-    	while (it.hasNext()){
-    		Page p = it.next();
-    		TransactionId dirtier = p.isDirty();
-    		if (dirtier != null && tid.equals(dirtier)){
-    			PageId pid = p.getId();
-                Page oldPage = p.getBeforeImage();
-                m_pgHash.put(pid, oldPage);
-    			p.markDirty(false, null);
+    public void revertPages(TransactionId tid) throws IOException {
+    	for (Stripe s : m_stripes) {
+    		Iterator<Frame> it = s.frames.values().iterator();
+    		while (it.hasNext()){
+    			Frame fr = it.next();
+    			Page p = fr.page;
+    			if (tupleLocked(p)) {
+    				// undo only tid's tuples; others may be changing the page
+    				HeapPage hp = (HeapPage) p;
+    				if (hp.isDirtiedBy(tid)) {
+    					hp.rollback(tid);
+    					DbFile f = Database.getCatalog().getDbFile(hp.getId().getTableId());
+    					if (f instanceof HeapFile)
+    						((HeapFile) f).updateFreeSpace(hp);
+    				}
+    				continue;
+    			}
+    			TransactionId dirtier = p.isDirty();
+    			if (dirtier != null && tid.equals(dirtier)){
+    				PageId pid = p.getId();
+    				Page oldPage = p.getBeforeImage();
+    				fr.page = oldPage;
+    				// the restored page may have room the aborted insert used up
+    				DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+    				if (f instanceof HeapFile)
+    					((HeapFile) f).updateFreeSpace((HeapPage) oldPage);
+    				p.markDirty(false, null);
+    			}
     		}
     	}
     }
     
     /** Write all pages of the specified transaction to disk.
+        Each page's update record is logged first. Without FORCE the pages
+        are only logged here, and written later by the cleaner.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
-    	Iterator<Page> it = m_pgHash.values().iterator();
-    	while (it.hasNext()){
-    		Page p = it.next();
-    		TransactionId dirtier = p.isDirty();
-    		if (dirtier != null && tid.equals(dirtier)){
-    			flushPage(p.getId());
-    			p.setBeforeImage();
-    			p.markDirty(false, null);
+    	List<Frame> dirty = new ArrayList<Frame>();
+    	for (Stripe s : m_stripes) {
+    		Iterator<Frame> it = s.frames.values().iterator();
+    		while (it.hasNext()){
+    			Frame fr = it.next();
+    			Page p = fr.page;
+    			TransactionId dirtier = p.isDirty();
+    			// others may have dirtied it since, under tuple locks
+    			if (p instanceof HeapPage ? ((HeapPage) p).isDirtiedBy(tid) : dirtier != null && tid.equals(dirtier))
+    				dirty.add(fr);
     		}
     	}
+    	if (dirty.isEmpty())
+    		return;
+
+    	LogFile log = Database.getLogFile();
+    	boolean force = m_force;
+    	List<Frame> whole = new ArrayList<Frame>(dirty.size());
+    	for (Frame fr : dirty) {
+    		Page p = fr.page;
+    		if (tupleLocked(p))
+    			commitCopy(tid, fr, (HeapPage) p, force);
+    		else {
+    			fr.lsn = log.logWrite(tid, p.getBeforeImage(), p);
+    			whole.add(fr);
+    		}
+    	}
+    	if (force)
+    		m_commits.commit(whole);
+    	for (Frame fr : whole) {
+    		Page p = fr.page;
+    		// set before the page looks clean, so it is never evictable unwritten
+    		if (!force)
+    			fr.unflushed = true;
+    		p.setBeforeImage();
+    		p.markDirty(false, null);
+    	}
+    	if (!force)
+    		scheduleClean();
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool, to make room for another one.
+     * Only clean pages are evicted (NO STEAL); the replacement policy picks
+     * one from the preferred stripe, and the other stripes of its pool are
+     * tried in turn if it has none. If no page is clean, pages with committed
+     * changes are written out first (see {@link #cleanPages}), and then,
+     * with STEAL, a page with uncommitted changes (see {@link #stealFrom}).
+     *
+     * @param preferred the stripe the new page will go to
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(Stripe preferred) throws DbException {
         // some code goes here
         // not necessary for proj1
-    	PageId pid;
-    	PageId pidToFlush = null;
-    	
-    	
-//    	Iterator<PageId> it2 = m_pgHash.keySet().iterator();
-    	Iterator<PageId> it = evictMap.keySet().iterator();
-//    	while (it.hasNext())
-//    		System.out.println("1: " + it.next().pageNumber());
-//    	while (it.hasNext())
-//    		System.out.println("2: " + it2.next().pageNumber());
-    	
-    	
-    	while(it.hasNext()){
-    		pid = it.next();
-    		Page p = m_pgHash.get(pid);
-    		// Page.isDirty() returns null if clean
-    		if (p.isDirty() == null){
-    			pidToFlush = pid;
+    	// only pages of the same pool make room for the new one
+    	Stripe[] stripes = preferred.pool.stripes;
+    	int start = 0;
+    	while (stripes[start] != preferred)
+    		start++;
+    	for (int pass = 0; pass < 2; pass++) {
+    		for (int i = 0; i < stripes.length; i++) {
+    			if (evictFrom(stripes[(start + i) & (stripes.length - 1)]))
+    				return;
+    		}
+    		// no clean page: write out committed changes and look again
+    		try {
+    			if (pass > 0 || cleanPages() == 0)
+    				break;
+    		} catch (IOException e) {
+    			throw new DbException("could not write pages to evict: " + e.getMessage());
+    		}
+    	}
+    	if (m_steal) {
+    		try {
+    			for (int i = 0; i < stripes.length; i++) {
+    				if (stealFrom(stripes[(start + i) & (stripes.length - 1)]))
+    					return;
+    			}
+    		} catch (IOException e) {
+    			throw new DbException("could not write pages to evict: " + e.getMessage());
+    		}
+    	}
+    	//if all of the pages in the pool were dirty
+    	throw new DbException("No clean pages found, when evicting in BufferPool.java.");
+    }
+
+    /**
+     * Evict the clean page of stripe s chosen by its replacement policy.
+     * @return false if s has no clean page
+     */
+    private boolean evictFrom(Stripe s) {
+    	PageId victim;
+    	synchronized (s) {
+    		Frame f = s.policy.victim();
+    		if (f == null)
+    			return false;
+    		victim = f.page.getId();
+    		s.remove(victim);
+    		release(s, f);
+    		s.pool.size.decrementAndGet();
+    	}
+    	evicted(s.pool, victim);
+    	if (m_prefetched.remove(victim) != null)
+    		m_prefetchWasted.incrementAndGet();
+    	return true;
+    }
+
+    /**
+     * Evict a page of stripe s that has uncommitted changes, after forcing
+     * its update record to the log and writing it. The page is written
+     * without the stripe's monitor, and only evicted if it was not replaced
+     * meanwhile; a change made to it after that is put back by
+     * insertTuple/deleteTuple.
+     * @return false if s has no such page, or it could not be evicted
+     */
+    private boolean stealFrom(Stripe s) throws IOException {
+    	Frame victim = null;
+    	for (Frame fr : s.frames.values()) {
+    		if (fr.page.isDirty() != null && !tupleLocked(fr.page)) {
+    			victim = fr;
     			break;
     		}
     	}
-    	
-    	
-    	//no longer flush it, because it is not dirty
-    	/*
-    	try {
-    		flushPage(pidToFlush);
-    	} catch (IOException e){
-    		throw new DbException("IOException" + e.getMessage());
-    	}
-    	*/
-    	
-    	//if all of the pages in evictMap were dirty
-    	if (pidToFlush == null)
-    		throw new DbException("No clean pages found, when evicting in BufferPool.java.");
-    	
-    	discardPage(pidToFlush);
+    	if (victim == null)
+    		return false;
+    	Page p = victim.page;
+    	TransactionId dirtier = p.isDirty();
+    	if (dirtier == null)
+    		return false;
+    	LogFile log = Database.getLogFile();
+    	victim.lsn = log.logWrite(dirtier, p.getBeforeImage(), p);
+    	m_stolen.put(dirtier, Boolean.TRUE);
+    	log.forceThrough(victim.lsn);
+    	PageId pid = p.getId();
+    	long start = System.nanoTime();
+    	Database.getCatalog().getDbFile(pid.getTableId()).writePage(p);
+    	wrote(pid, 1, start);
+    	synchronized (s) {
+    		if (s.frames.get(pid) != victim || victim.page != p)
+    			return false;
+    		s.remove(pid);
+    		release(s, victim);
+    		s.pool.size.decrementAndGet();
+    	}
+    	evicted(s.pool, pid);
+    	return true;
     }
 }
@@ -0,0 +1,420 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.*;
+
+/**
+ * BulkLoader converts a delimited text file into a HeapFile, like
+ * {@link HeapFileEncoder#convert(File, File, int, int, Type[], char)}, but
+ * parses and encodes on several threads.
+ * <p>
+ * The input is cut into chunks of whole lines. Each chunk is parsed and
+ * encoded into pages by a worker thread, and the finished pages are written
+ * in input order with one large write per chunk, so tuples end up in the
+ * same order as in the input. Each chunk starts a new page, so the last
+ * page of each chunk may be partly empty; with the default chunk size that
+ * is one partly empty page in a few thousand.
+ * <p>
+ * The loader can also build the histograms used by {@link TableStats}
+ * while it goes, so that a freshly loaded table does not have to be scanned
+ * again to compute its statistics: see {@link #setComputeStats} and
+ * {@link #getTableStats}.
+ */
+public class BulkLoader {
+
+    /** Default bytes of input text handed to each worker at a time. */
+    static final int CHUNK_BYTES = 8 << 20;
+
+    /** Buckets of the per-chunk integer histograms, which are merged into
+     *  the final TableStats.NUM_HIST_BINS buckets at the end. */
+    static final int CHUNK_HIST_BINS = 1024;
+
+    private final Type[] typeAr;
+    private final int npagebytes;
+    private char fieldSeparator = ',';
+    private boolean slotted = false;
+    private boolean computeStats = false;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    int chunkBytes = CHUNK_BYTES;
+
+    private int numTuples;
+    private int numPages;
+    private ArrayList<Chunk> statChunks;
+
+    /**
+     * @param typeAr the type of each column of the input
+     * @param npagebytes the number of bytes per page in the output file
+     */
+    public BulkLoader(Type[] typeAr, int npagebytes) {
+        this.typeAr = typeAr;
+        this.npagebytes = npagebytes;
+    }
+
+    /** Set the character separating fields of the input (default ','). */
+    public void setFieldSeparator(char fieldSeparator) {
+        this.fieldSeparator = fieldSeparator;
+    }
+
+    /** Write pages in the SlottedHeapPage layout instead of the fixed one. */
+    public void setSlotted(boolean slotted) {
+        this.slotted = slotted;
+    }
+
+    /** Set the number of worker threads (default: one per processor). */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one thread");
+        this.threads = threads;
+    }
+
+    /** Build column histograms during the load. */
+    public void setComputeStats(boolean computeStats) {
+        this.computeStats = computeStats;
+    }
+
+    /** @return the number of tuples written by the last load. */
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of pages written by the last load. */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Convert inFile into a heap file written to outFile.
+     *
+     * @throws IOException if the input/output file can't be opened, a
+     *   malformed input line is encountered, or a tuple does not fit on a page
+     */
+    public void load(File inFile, File outFile) throws IOException {
+        numTuples = 0;
+        numPages = 0;
+        statChunks = computeStats ? new ArrayList<Chunk>() : null;
+
+        ExecutorService ex = Executors.newFixedThreadPool(threads);
+        InputStream in = new FileInputStream(inFile);
+        FileOutputStream os = new FileOutputStream(outFile);
+        FileChannel out = os.getChannel();
+        try {
+            // keep a bounded number of chunks in flight, and write them in
+            // the order they were read
+            LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+            ChunkReader reader = new ChunkReader(in);
+            Chunk c;
+            while ((c = reader.next()) != null) {
+                final Chunk chunk = c;
+                pending.add(ex.submit(new Callable<Chunk>() {
+                    public Chunk call() throws IOException {
+                        encode(chunk);
+                        return chunk;
+                    }
+                }));
+                if (pending.size() >= 2 * threads)
+                    write(pending.removeFirst(), out);
+            }
+            while (!pending.isEmpty())
+                write(pending.removeFirst(), out);
+
+            // like HeapFileEncoder, an empty input gives one empty page
+            if (numPages == 0) {
+                writeFully(out, ByteBuffer.wrap(new byte[npagebytes]));
+                numPages++;
+            }
+        } finally {
+            ex.shutdownNow();
+            in.close();
+            os.close();
+        }
+    }
+
+    /**
+     * Build a TableStats object from the histograms computed by the last
+     * load, which must have been run with setComputeStats(true). The loaded
+     * file must already have been added to the catalog as table tableid.
+     */
+    public TableStats getTableStats(int tableid, int ioCostPerPage) {
+        if (statChunks == null)
+            throw new IllegalStateException("statistics were not computed");
+        int numFields = typeAr.length;
+        IntHistogram[] intHist = new IntHistogram[numFields];
+        StringHistogram[] strHist = new StringHistogram[numFields];
+        for (int i = 0; i < numFields; i++) {
+            if (typeAr[i] == Type.INT_TYPE) {
+                int min = 0, max = 0;
+                boolean first = true;
+                for (Chunk c : statChunks) {
+                    if (c.numTuples == 0)
+                        continue;
+                    if (first || c.min[i] < min)
+                        min = c.min[i];
+                    if (first || c.max[i] > max)
+                        max = c.max[i];
+                    first = false;
+                }
+                intHist[i] = new IntHistogram(TableStats.NUM_HIST_BINS, min, max);
+                for (Chunk c : statChunks)
+                    if (c.numTuples > 0)
+                        intHist[i].addAll(c.intHist[i]);
+            } else {
+                strHist[i] = new StringHistogram(TableStats.NUM_HIST_BINS);
+                for (Chunk c : statChunks)
+                    strHist[i].addAll(c.strHist[i]);
+            }
+        }
+        return new TableStats(tableid, ioCostPerPage, numTuples, intHist, strHist);
+    }
+
+    private void write(Future<Chunk> f, FileChannel out) throws IOException {
+        Chunk c;
+        try {
+            c = f.get();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        writeFully(out, ByteBuffer.wrap(c.pages, 0, c.numPages * npagebytes));
+        numPages += c.numPages;
+        numTuples += c.numTuples;
+        c.pages = null;
+        if (statChunks != null)
+            statChunks.add(c);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            out.write(buf);
+    }
+
+    /** A run of whole input lines, and the pages encoded from it. */
+    static class Chunk {
+        byte[] text;
+        int textLen;
+
+        byte[] pages;
+        int numPages;
+        int numTuples;
+
+        int[] min, max;
+        IntHistogram[] intHist;
+        StringHistogram[] strHist;
+
+        Chunk(byte[] text, int textLen) {
+            this.text = text;
+            this.textLen = textLen;
+        }
+    }
+
+    /**
+     * Cuts an input stream into chunks that end on a line boundary. A line
+     * longer than the chunk size is carried over until it is complete.
+     */
+    class ChunkReader {
+        private final InputStream in;
+        private byte[] leftover = new byte[0];
+        private boolean eof = false;
+
+        ChunkReader(InputStream in) {
+            this.in = in;
+        }
+
+        Chunk next() throws IOException {
+            while (true) {
+                if (eof && leftover.length == 0)
+                    return null;
+                byte[] buf = new byte[leftover.length + chunkBytes];
+                System.arraycopy(leftover, 0, buf, 0, leftover.length);
+                int len = leftover.length;
+                while (!eof && len < buf.length) {
+                    int n = in.read(buf, len, buf.length - len);
+                    if (n < 0)
+                        eof = true;
+                    else
+                        len += n;
+                }
+
+                int cut = len;
+                if (!eof) {
+                    while (cut > 0 && buf[cut - 1] != '\n')
+                        cut--;
+                }
+                if (cut == 0 && !eof) {
+                    // no complete line yet: read more
+                    leftover = new byte[len];
+                    System.arraycopy(buf, 0, leftover, 0, len);
+                    continue;
+                }
+                leftover = new byte[len - cut];
+                System.arraycopy(buf, cut, leftover, 0, len - cut);
+                if (cut == 0)
+                    return null;
+                return new Chunk(buf, cut);
+            }
+        }
+    }
+
+    /**
+     * Parse the lines of a chunk and encode them into pages. Runs on a
+     * worker thread.
+     */
+    void encode(Chunk c) throws IOException {
+        ArrayList<Object[]> rows = new ArrayList<Object[]>();
+
+        int start = 0;
+        for (int i = 0; i <= c.textLen; i++) {
+            if (i < c.textLen && c.text[i] != '\n')
+                continue;
+            int end = i;
+            if (end > start && c.text[end - 1] == '\r')
+                end--;
+            if (end > start)
+                rows.add(parseLine(c.text, start, end));
+            start = i + 1;
+        }
+        c.text = null;
+
+        c.numTuples = rows.size();
+        if (computeStats)
+            computeStats(c, rows);
+
+        ArrayList<byte[]> pages = slotted ? encodeSlotted(rows) : encodeFixed(rows);
+        c.numPages = pages.size();
+        c.pages = new byte[c.numPages * npagebytes];
+        for (int p = 0; p < pages.size(); p++)
+            System.arraycopy(pages.get(p), 0, c.pages, p * npagebytes, npagebytes);
+    }
+
+    /** @return the values of one line: an Integer or a String per field */
+    private Object[] parseLine(byte[] text, int start, int end) throws IOException {
+        int numFields = typeAr.length;
+        Object[] vals = new Object[numFields];
+        int f = 0;
+        int fs = start;
+        for (int i = start; i <= end; i++) {
+            if (i < end && text[i] != fieldSeparator)
+                continue;
+            if (f >= numFields)
+                throw new IOException("BAD LINE : " + new String(text, start, end - start, "ISO-8859-1"));
+            String s = new String(text, fs, i - fs, "ISO-8859-1").trim();
+            if (typeAr[f] == Type.INT_TYPE) {
+                try {
+                    vals[f] = Integer.valueOf(s);
+                } catch (NumberFormatException e) {
+                    throw new IOException("BAD LINE : " + new String(text, start, end - start, "ISO-8859-1"));
+                }
+            } else {
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                vals[f] = s;
+            }
+            f++;
+            fs = i + 1;
+        }
+        if (f != numFields)
+            throw new IOException("BAD LINE : " + new String(text, start, end - start, "ISO-8859-1"));
+        return vals;
+    }
+
+    /** Pages in the fixed-width HeapPage layout. */
+    private ArrayList<byte[]> encodeFixed(ArrayList<Object[]> rows) {
+        int nrecbytes = 0;
+        for (int i = 0; i < typeAr.length; i++)
+            nrecbytes += typeAr[i].getLen();
+        int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+        int nheaderbytes = (nrecords + 7) / 8;
+
+        ArrayList<byte[]> pages = new ArrayList<byte[]>();
+        for (int r = 0; r < rows.size(); r += nrecords) {
+            byte[] page = new byte[npagebytes];
+            ByteBuffer buf = ByteBuffer.wrap(page);
+            int n = Math.min(nrecords, rows.size() - r);
+            for (int i = 0; i < n; i++) {
+                page[i / 8] |= (1 << (i % 8));
+                buf.position(nheaderbytes + i * nrecbytes);
+                Object[] vals = rows.get(r + i);
+                for (int f = 0; f < typeAr.length; f++) {
+                    if (typeAr[f] == Type.INT_TYPE) {
+                        buf.putInt((Integer) vals[f]);
+                    } else {
+                        String s = (String) vals[f];
+                        buf.putInt(s.length());
+                        for (int k = 0; k < s.length(); k++)
+                            buf.put((byte) s.charAt(k));
+                        // rest of the field stays zero
+                        buf.position(buf.position() + Type.STRING_LEN - s.length());
+                    }
+                }
+            }
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /** Pages in the variable-length SlottedHeapPage layout. */
+    private ArrayList<byte[]> encodeSlotted(ArrayList<Object[]> rows) throws IOException {
+        ArrayList<byte[]> pages = new ArrayList<byte[]>();
+        ArrayList<byte[]> records = new ArrayList<byte[]>();
+        int used = SlottedHeapPage.HEADER_SIZE;
+        for (Object[] vals : rows) {
+            ByteArrayOutputStream recBAOS = new ByteArrayOutputStream();
+            DataOutputStream recStream = new DataOutputStream(recBAOS);
+            for (int f = 0; f < typeAr.length; f++) {
+                Field fld = (typeAr[f] == Type.INT_TYPE)
+                        ? new IntField((Integer) vals[f])
+                        : new StringField((String) vals[f], Type.STRING_LEN);
+                typeAr[f].serializeCompact(fld, recStream);
+            }
+            recStream.flush();
+            byte[] rec = recBAOS.toByteArray();
+
+            int need = rec.length + SlottedHeapPage.SLOT_SIZE;
+            if (SlottedHeapPage.HEADER_SIZE + need > npagebytes)
+                throw new IOException("tuple does not fit on a page");
+            if (used + need > npagebytes) {
+                pages.add(SlottedHeapPage.buildPageData(records.toArray(new byte[0][]), npagebytes));
+                records.clear();
+                used = SlottedHeapPage.HEADER_SIZE;
+            }
+            records.add(rec);
+            used += need;
+        }
+        if (records.size() > 0)
+            pages.add(SlottedHeapPage.buildPageData(records.toArray(new byte[0][]), npagebytes));
+        return pages;
+    }
+
+    /** Per-chunk min, max and histograms of each column. */
+    private void computeStats(Chunk c, ArrayList<Object[]> rows) {
+        int numFields = typeAr.length;
+        c.min = new int[numFields];
+        c.max = new int[numFields];
+        c.intHist = new IntHistogram[numFields];
+        c.strHist = new StringHistogram[numFields];
+        for (int f = 0; f < numFields; f++) {
+            if (typeAr[f] == Type.INT_TYPE) {
+                for (int r = 0; r < rows.size(); r++) {
+                    int v = (Integer) rows.get(r)[f];
+                    if (r == 0 || v < c.min[f])
+                        c.min[f] = v;
+                    if (r == 0 || v > c.max[f])
+                        c.max[f] = v;
+                }
+                c.intHist[f] = new IntHistogram(CHUNK_HIST_BINS, c.min[f], c.max[f]);
+                for (Object[] vals : rows)
+                    c.intHist[f].addValue((Integer) vals[f]);
+            } else {
+                c.strHist[f] = new StringHistogram(TableStats.NUM_HIST_BINS);
+                for (Object[] vals : rows)
+                    c.strHist[f].addValue((String) vals[f]);
+            }
+        }
+    }
+}
@@ -51,6 +51,9 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
+    	Table old = m_tableHash.get(name);
+    	if (old != null && old.dbFile != file)
+    		closeFile(old.dbFile);
     	m_tableHash.put(name,new Table(file,name,pkeyField));
     	m_tableIndex.put(file.getId(),name);
     }
@@ -99,6 +102,17 @@ public class Catalog {
     	throw new NoSuchElementException();
     }
 
+    /**
+     * Returns the page size, in bytes, of the specified table. Tables that
+     * are not heap files use the database-wide default page size.
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+    	DbFile f = getDbFile(tableid);
+    	if (f instanceof HeapFile)
+    		return ((HeapFile) f).getPageSize();
+    	return BufferPool.getPageSize();
+    }
+
     /**
      * Returns the DbFile that can be used to read the contents of the
      * specified table.
@@ -135,10 +149,28 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+    	for (Table tbl : m_tableHash.values())
+    		closeFile(tbl.dbFile);
     	m_tableHash.clear();
     	m_tableIndex.clear();
     }
     
+    /**
+     * Save the on-disk state kept beside each table's pages, e.g. at
+     * shutdown. The tables stay open.
+     */
+    public void saveFiles() {
+    	for (Table tbl : m_tableHash.values())
+    		if (tbl.dbFile instanceof HeapFile)
+    			((HeapFile) tbl.dbFile).saveState();
+    }
+
+    /** Release any open file handles held by a table's DbFile. */
+    private void closeFile(DbFile file) {
+    	if (file instanceof HeapFile)
+    		((HeapFile) file).close();
+    }
+    
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
      * @param catalogFile
@@ -150,6 +182,11 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
+                //a named buffer pool: "pool name pages=n [policy=lru]"
+                if (line.trim().toLowerCase().startsWith("pool ") && line.indexOf("(") < 0) {
+                    loadPool(line.trim());
+                    continue;
+                }
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
@@ -181,8 +218,43 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder, name + ".dat"), t);
+                //table options follow the field list, e.g.
+                //"name (a int, b string) mmap pagesize=16384 layout=slotted"
+                String opts = line.substring(line.indexOf(")") + 1).trim();
+                String[] optAr = opts.length() > 0 ? opts.split("\\s+") : new String[0];
+                int pageSize = BufferPool.getPageSize();
+                String pool = null;
+                for (String o : optAr)
+                    if (o.toLowerCase().startsWith("pagesize="))
+                        pageSize = Integer.parseInt(o.substring(9));
+                HeapFile tabHf = new HeapFile(new File(baseFolder, name + ".dat"), t, pageSize);
+                for (String o : optAr) {
+                    if (o.toLowerCase().startsWith("pagesize="))
+                        continue;
+                    else if (o.toLowerCase().startsWith("pool="))
+                        pool = o.substring(5);
+                    else if (o.toLowerCase().equals("mmap"))
+                        tabHf.setMemoryMapped(true);
+                    else if (o.toLowerCase().startsWith("extent="))
+                        tabHf.setExtentPages(Integer.parseInt(o.substring(7)));
+                    else if (o.toLowerCase().equals("layout=slotted"))
+                        tabHf.setSlotted(true);
+                    else if (o.toLowerCase().equals("layout=fixed"))
+                        tabHf.setSlotted(false);
+                    else {
+                        System.out.println("Unknown table option " + o);
+                        System.exit(0);
+                    }
+                }
                 addTable(tabHf,name,primaryKey);
+                if (pool != null) {
+                    try {
+                        Database.getBufferPool().assignTable(tabHf.getId(), pool);
+                    } catch (NoSuchElementException e) {
+                        System.out.println("Unknown buffer pool " + pool + " for table " + name);
+                        System.exit(0);
+                    }
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -193,5 +265,38 @@ public class Catalog {
             System.exit(0);
         }
     }
+
+    /**
+     * Create the buffer pool declared by a catalog line of the form
+     * "pool name pages=n [policy=clock|lru]". Without a policy the pool
+     * uses the BufferPool default.
+     */
+    private void loadPool(String line) {
+        String[] els = line.split("\\s+");
+        int pages = -1;
+        String policy = BufferPool.getDefaultPolicy();
+        for (int i = 2; i < els.length; i++) {
+            String o = els[i].toLowerCase();
+            if (o.startsWith("pages="))
+                pages = Integer.parseInt(o.substring(6));
+            else if (o.startsWith("policy="))
+                policy = o.substring(7);
+            else {
+                System.out.println("Unknown pool option " + els[i]);
+                System.exit(0);
+            }
+        }
+        if (els.length < 2 || pages <= 0) {
+            System.out.println("Invalid pool entry : " + line);
+            System.exit(0);
+        }
+        try {
+            Database.getBufferPool().addPool(els[1], pages, policy);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(0);
+        }
+        System.out.println("Added buffer pool : " + els[1] + " with " + pages + " pages");
+    }
 }
 
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * CLOCK replacement over an array of frames, with the hot/cold distinction
+ * of CLOCK-Pro. A hit only sets the frame's reference bit.
+ * <p>
+ * New pages are admitted cold. To find a victim the clock hand sweeps the
+ * array: a referenced frame has its bit cleared and becomes hot, an
+ * unreferenced hot frame is demoted to cold, and the first unreferenced
+ * cold frame that is evictable is the victim. A page read once, such as
+ * one read by a large sequential scan, is thus evicted the first time the
+ * hand reaches it, while pages that are used again survive for two more
+ * turns of the hand without further use; the scan replaces its own pages
+ * rather than the working set.
+ */
+class ClockPolicy implements ReplacementPolicy {
+
+    private BufferPool.Frame[] ring = new BufferPool.Frame[16];
+    /** Slots in use, including holes left by removed frames. */
+    private int size = 0;
+    /** Holes in ring, reused before the array grows. */
+    private int[] free = new int[16];
+    private int numFree = 0;
+    private int hand = 0;
+
+    public void admit(BufferPool.Frame f) {
+        int slot;
+        if (numFree > 0) {
+            slot = free[--numFree];
+        } else {
+            if (size == ring.length) {
+                BufferPool.Frame[] r = new BufferPool.Frame[ring.length * 2];
+                System.arraycopy(ring, 0, r, 0, size);
+                ring = r;
+            }
+            slot = size++;
+        }
+        ring[slot] = f;
+        f.slot = slot;
+        f.referenced = false;
+        f.hot = false;
+    }
+
+    public void touch(BufferPool.Frame f) {
+        // avoid dirtying the cache line when the bit is already set
+        if (!f.referenced)
+            f.referenced = true;
+    }
+
+    public void remove(BufferPool.Frame f) {
+        ring[f.slot] = null;
+        if (numFree == free.length) {
+            int[] fr = new int[free.length * 2];
+            System.arraycopy(free, 0, fr, 0, numFree);
+            free = fr;
+        }
+        free[numFree++] = f.slot;
+        f.slot = -1;
+    }
+
+    public BufferPool.Frame victim() {
+        // three full turns: a referenced frame may need the first two to
+        // go from referenced to hot to cold
+        for (int i = 0; i < 3 * size; i++) {
+            if (hand >= size)
+                hand = 0;
+            BufferPool.Frame f = ring[hand++];
+            if (f == null)
+                continue;
+            if (f.referenced) {
+                f.referenced = false;
+                f.hot = true;
+            } else if (f.hot) {
+                f.hot = false;
+            } else if (f.isEvictable()) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    public void order(List<BufferPool.Frame> out) {
+        // referenced hot frames survive longest, then hot, then
+        // referenced cold, then cold; within each, in the hand's order
+        for (int rank = 3; rank >= 0; rank--) {
+            for (int i = 0; i < size; i++) {
+                BufferPool.Frame f = ring[(hand + i) % size];
+                if (f != null && (f.hot ? 2 : 0) + (f.referenced ? 1 : 0) == rank)
+                    out.add(f);
+            }
+        }
+    }
+}
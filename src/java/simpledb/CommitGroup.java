@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CommitGroup writes the pages of committing transactions (FORCE) in
+ * groups. A committer adds its dirty frames to the open group and then
+ * waits its turn to write. The first member of a group to get the turn
+ * closes it and writes the pages of every member at once: the log is
+ * forced once, pages go out sorted by table and page number in gathering
+ * writes, and each file is synced once. The other members find their
+ * pages already written.
+ * <p>
+ * There is no timer: a group stays open while the previous one is being
+ * written, so a lone committer never waits, and under load each write
+ * serves every commit that arrived during the last one.
+ */
+class CommitGroup {
+
+    /** Frames committed together, and the outcome of writing them. */
+    private static class Group {
+        final List<BufferPool.Frame> frames = new ArrayList<BufferPool.Frame>();
+        boolean written;
+        IOException failure;
+    }
+
+    private final BufferPool bp;
+    private Group open = new Group();
+    /** Held by the member writing a group. */
+    private final Object writeLock = new Object();
+    /** Groups written so far. */
+    long groupsWritten;
+
+    CommitGroup(BufferPool bp) {
+        this.bp = bp;
+    }
+
+    /**
+     * Write the given frames' pages and sync their files, together with
+     * those of concurrent commits. Returns once they are on disk.
+     */
+    void commit(List<BufferPool.Frame> frames) throws IOException {
+        Group g;
+        synchronized (this) {
+            g = open;
+            g.frames.addAll(frames);
+        }
+        synchronized (writeLock) {
+            if (!g.written) {
+                synchronized (this) {
+                    // later commits start the next group
+                    open = new Group();
+                }
+                try {
+                    write(g.frames);
+                } catch (IOException e) {
+                    g.failure = e;
+                }
+                g.written = true;
+                groupsWritten++;
+            }
+        }
+        if (g.failure != null)
+            throw g.failure;
+    }
+
+    private void write(List<BufferPool.Frame> frames) throws IOException {
+        bp.writeFrames(frames);
+        Set<Integer> tables = new LinkedHashSet<Integer>();
+        for (BufferPool.Frame fr : frames)
+            tables.add(fr.page.getId().getTableId());
+        for (int tableId : tables) {
+            DbFile f = Database.getCatalog().getDbFile(tableId);
+            if (f instanceof HeapFile)
+                ((HeapFile) f).force();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A statistics counter that many threads update, such as the buffer pool's
+ * hit count. Each thread adds to one of several cells, each on a cache
+ * line of its own, so that concurrent updates rarely touch the same line;
+ * reading the count adds up the cells. This is the design of Java 8's
+ * LongAdder, which is newer than the Java version this code targets.
+ */
+class Counter {
+
+    /** Longs per cell: cells start 64 bytes apart. */
+    private static final int PAD = 8;
+    /** A power of two, about twice the number of processors. */
+    private static final int CELLS;
+    static {
+        int want = Math.min(64, 2 * Runtime.getRuntime().availableProcessors());
+        int n = 1;
+        while (n < want)
+            n <<= 1;
+        CELLS = n;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(CELLS * PAD);
+
+    void add(long x) {
+        cells.addAndGet(cell(), x);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    /** @return the count; not a snapshot if updates are in progress. */
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < CELLS; i++)
+            sum += cells.get(i * PAD);
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < CELLS; i++)
+            cells.set(i * PAD, 0);
+    }
+
+    /** @return the index of the calling thread's cell. */
+    private static int cell() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h >>> 16) & (CELLS - 1)) * PAD;
+    }
+}
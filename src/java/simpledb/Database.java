@@ -21,6 +21,7 @@ public class Database {
     private Database() {
     	_catalog = new Catalog();
     	_bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+    	_bufferpool.publishStats();
     	try {
             _logfile = new LogFile(new File(LOGFILENAME));
         } catch(IOException e) {
@@ -51,11 +52,13 @@ public class Database {
     */
     public static BufferPool resetBufferPool(int pages) {
         _instance._bufferpool = new BufferPool(pages);
+        _instance._bufferpool.publishStats();
         return _instance._bufferpool;
     }
 
     //reset the database, used for unit tests only.
     public static void reset() {
+    	_instance._catalog.clear();
     	_instance = new Database();
     }
 
@@ -40,6 +40,10 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+    	// let a scan directly below us skip non-matching rows without
+    	// materializing them; we still apply the predicate ourselves
+    	if (m_child instanceof SeqScan)
+    		((SeqScan) m_child).setPushedPredicate(m_p);
     	m_child.open();
     	super.open();
     }
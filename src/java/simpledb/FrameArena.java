@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FrameArena is the page memory of a BufferPool: a fixed number of
+ * page-sized buffers, allocated once in direct memory when the pool is
+ * created. Pages are read straight into a free buffer and decoded from it
+ * in place, so loading a page allocates no page-sized array, and the pool's
+ * page memory does not grow with use or churn the garbage collector.
+ * <p>
+ * Buffers are handed out by index. The pool takes one for each page it
+ * loads and gives it back when the page leaves the pool.
+ */
+class FrameArena {
+
+    /** Largest single direct allocation. */
+    private static final int MAX_CHUNK = 1 << 30;
+
+    private final int frameSize;
+    private final ByteBuffer[] frames;
+    private final int[] free;
+    private int nfree;
+
+    /**
+     * @param numFrames number of buffers
+     * @param frameSize bytes per buffer
+     */
+    FrameArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        frames = new ByteBuffer[numFrames];
+        free = new int[numFrames];
+
+        int perChunk = Math.max(1, MAX_CHUNK / frameSize);
+        ByteBuffer chunk = null;
+        for (int i = 0; i < numFrames; i++) {
+            if (i % perChunk == 0)
+                chunk = ByteBuffer.allocateDirect(Math.min(perChunk, numFrames - i) * frameSize);
+            chunk.limit((i % perChunk + 1) * frameSize);
+            chunk.position((i % perChunk) * frameSize);
+            frames[i] = chunk.slice();
+        }
+        // hand out low indexes first
+        for (int i = 0; i < numFrames; i++)
+            free[i] = numFrames - 1 - i;
+        nfree = numFrames;
+    }
+
+    /** @return the size of each buffer, in bytes. */
+    int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return the index of a free buffer, or -1 if all are in use. */
+    synchronized int allocate() {
+        if (nfree == 0)
+            return -1;
+        return free[--nfree];
+    }
+
+    /** Return a buffer to the free list. */
+    synchronized void release(int frame) {
+        free[nfree++] = frame;
+    }
+
+    /** @return the number of buffers not in use. */
+    synchronized int available() {
+        return nfree;
+    }
+
+    /** @return buffer number i. Callers take duplicates to read or write it. */
+    ByteBuffer frame(int i) {
+        return frames[i];
+    }
+}
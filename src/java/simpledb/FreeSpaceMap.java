@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a HeapFile may have empty slots, so
+ * that inserts can go straight to a candidate page instead of scanning the
+ * file. It is persisted in a small side file next to the table's data file
+ * (<i>table</i>.dat.fsm).
+ * <p>
+ * The map is a hint, not a guarantee: a set bit means "may have room" and
+ * is checked against the page itself before inserting; a page found to be
+ * full simply has its bit cleared. A clear bit, on the other hand, must
+ * never hide a page with free slots, so whenever the map may be stale (the
+ * side file is missing, belongs to a different file length, or was not
+ * closed cleanly) every page is treated as a candidate again.
+ * <p>
+ * Side file format: an int magic number, a byte that is 1 if the map was
+ * saved cleanly, an int page count, and the length-prefixed bytes of the
+ * bitmap.
+ */
+public class FreeSpaceMap {
+
+    static final int MAGIC = 0x46534d31; // "FSM1"
+
+    private final File file;
+    private final BitSet free;
+    private int numPages;
+    private boolean changed = false;
+
+    private FreeSpaceMap(File file, BitSet free, int numPages) {
+        this.file = file;
+        this.free = free;
+        this.numPages = numPages;
+    }
+
+    /**
+     * Load the free-space map for a data file, or build a conservative one
+     * (every page a candidate) if there is no usable map on disk.
+     *
+     * @param dataFile the table's data file
+     * @param numPages the number of pages currently in the data file
+     */
+    public static FreeSpaceMap open(File dataFile, int numPages) {
+        File f = new File(dataFile.getPath() + ".fsm");
+        BitSet free = new BitSet(numPages);
+        int known = 0;
+
+        if (f.exists()) {
+            try {
+                DataInputStream dis = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(f)));
+                try {
+                    if (dis.readInt() == MAGIC && dis.readByte() == 1) {
+                        int stored = dis.readInt();
+                        byte[] bits = new byte[dis.readInt()];
+                        dis.readFully(bits);
+                        if (stored <= numPages) {
+                            for (int i = 0; i < bits.length * 8 && i < stored; i++)
+                                if ((bits[i / 8] >> (i % 8) & 1) == 1)
+                                    free.set(i);
+                            known = stored;
+                        }
+                    }
+                } finally {
+                    dis.close();
+                }
+            } catch (IOException e) {
+                // unreadable map; fall through and rebuild
+                free.clear();
+                known = 0;
+            }
+        }
+
+        // pages the map knows nothing about may have room
+        free.set(known, numPages);
+        return new FreeSpaceMap(f, free, numPages);
+    }
+
+    /**
+     * @return the first page at or after from that may have free slots, or
+     *   -1 if there is none.
+     */
+    public synchronized int nextCandidate(int from) {
+        int pg = free.nextSetBit(from);
+        return (pg < 0 || pg >= numPages) ? -1 : pg;
+    }
+
+    /** @return true if page pgNo is marked as possibly having free slots. */
+    public synchronized boolean isFree(int pgNo) {
+        return free.get(pgNo);
+    }
+
+    /**
+     * Record whether page pgNo has free slots, growing the map if pgNo is
+     * past its end.
+     */
+    public synchronized void setFree(int pgNo, boolean hasRoom) {
+        if (pgNo >= numPages) {
+            free.set(numPages, pgNo);
+            numPages = pgNo + 1;
+        } else if (free.get(pgNo) == hasRoom) {
+            return;
+        }
+        free.set(pgNo, hasRoom);
+        if (!changed) {
+            changed = true;
+            writeHeader(false);
+        }
+    }
+
+    /** Write the map to its side file and mark it clean. */
+    public synchronized void save() throws IOException {
+        if (!changed)
+            return;
+        byte[] bits = new byte[(numPages + 7) / 8];
+        for (int i = free.nextSetBit(0); i >= 0 && i < numPages; i = free.nextSetBit(i + 1))
+            bits[i / 8] |= (1 << (i % 8));
+
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeByte(1);
+            dos.writeInt(numPages);
+            dos.writeInt(bits.length);
+            dos.write(bits);
+        } finally {
+            dos.close();
+        }
+        changed = false;
+    }
+
+    /**
+     * Mark the side file as not cleanly closed, so that a crash before the
+     * next save makes the next open rebuild the map.
+     */
+    private void writeHeader(boolean clean) {
+        if (!file.exists())
+            return;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(4);
+                raf.writeByte(clean ? 1 : 0);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
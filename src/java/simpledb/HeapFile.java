@@ -1,8 +1,12 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.Permissions;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import simpledb.Catalog.Table;
 
@@ -20,6 +24,38 @@ public class HeapFile implements DbFile {
 
 	File m_f;
 	TupleDesc m_td;
+	/** Bytes per page of this file. */
+	final int m_pageSize;
+
+	/** Long-lived channel used for all page I/O on this file; opened lazily
+	 *  and shared by every reader and writer. FileChannel positional reads
+	 *  and writes do not touch a shared file pointer, so concurrent callers
+	 *  never serialize on a seek. */
+	transient RandomAccessFile m_raf;
+	transient FileChannel m_channel;
+
+	/** Number of pages covered by each memory-mapped window. */
+	static final int MMAP_WINDOW_PAGES = 1024;
+
+	/** When set, readPage decodes pages straight out of read-only
+	 *  MappedByteBuffer windows over the file instead of reading them. */
+	boolean m_mmap = false;
+	transient ArrayList<MappedByteBuffer> m_windows = new ArrayList<MappedByteBuffer>();
+
+	/** When set, pages use the variable-length SlottedHeapPage layout. */
+	boolean m_slotted = false;
+
+	/** Pages that may have empty slots; loaded on first insert or delete. */
+	transient FreeSpaceMap m_fsm;
+
+	/** Number of pages in the file, read from the file length on first use
+	 *  and maintained in memory from then on. */
+	transient volatile AtomicInteger m_numPages;
+	/** The file is grown this many pages at a time; the unused tail is
+	 *  trimmed again by saveState. */
+	int m_extentPages = 1;
+	/** Bytes allocated on disk, which may run past the last page. */
+	transient long m_allocated = -1;
 	
     /**
      * Constructs a heap file backed by the specified file.
@@ -29,9 +65,33 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * pageSize bytes long.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param pageSize
+     *            bytes per page, including the header.
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
         // some code goes here
+    	if (pageSize <= 0)
+    		throw new IllegalArgumentException("page size must be positive");
     	m_f = f;
     	m_td = td;
+    	m_pageSize = pageSize;
+    }
+
+    /**
+     * Returns the size in bytes of each page of this file.
+     */
+    public int getPageSize() {
+    	return m_pageSize;
     }
 
     /**
@@ -68,19 +128,204 @@ public class HeapFile implements DbFile {
     	return m_td;
     }
 
+    /**
+     * Returns the channel backing this file, opening it on first use.
+     */
+    synchronized FileChannel getChannel() throws IOException {
+    	if (m_channel == null || !m_channel.isOpen()) {
+    		m_raf = new RandomAccessFile(m_f, "rw");
+    		m_channel = m_raf.getChannel();
+    	}
+    	return m_channel;
+    }
+
+    /**
+     * Enables or disables the memory-mapped read path for this file.
+     * Writes always go through the file channel; the mapping is shared with
+     * the file, so written pages are visible through it immediately.
+     */
+    public synchronized void setMemoryMapped(boolean mmap) {
+    	m_mmap = mmap;
+    	if (!mmap)
+    		m_windows.clear();
+    }
+
+    /** @return true if page reads are served from a memory mapping. */
+    public boolean isMemoryMapped() {
+    	return m_mmap;
+    }
+
+    /**
+     * Returns a buffer over page pgNo sliced out of the memory-mapped window
+     * that contains it, or null if the page lies past the end of the file.
+     * Windows are mapped on first use and remapped once the file has grown
+     * past their mapped length, e.g. after insertTuple appends a page.
+     */
+    synchronized ByteBuffer mappedPage(int pgNo) throws IOException {
+    	if (m_windows == null)
+    		m_windows = new ArrayList<MappedByteBuffer>();
+    	int w = pgNo / MMAP_WINDOW_PAGES;
+    	int off = (pgNo % MMAP_WINDOW_PAGES) * m_pageSize;
+    	while (m_windows.size() <= w)
+    		m_windows.add(null);
+
+    	MappedByteBuffer win = m_windows.get(w);
+    	if (win == null || win.capacity() < off + m_pageSize) {
+    		long start = (long) w * MMAP_WINDOW_PAGES * m_pageSize;
+    		long len = Math.min((long) MMAP_WINDOW_PAGES * m_pageSize,
+    				getChannel().size() - start);
+    		if (len < off + m_pageSize)
+    			return null;
+    		win = getChannel().map(FileChannel.MapMode.READ_ONLY, start, len);
+    		m_windows.set(w, win);
+    	}
+
+    	ByteBuffer page = win.duplicate();
+    	page.position(off);
+    	page.limit(off + m_pageSize);
+    	return page.slice();
+    }
+
+    /**
+     * Selects the page layout of this file: the fixed-width HeapPage layout
+     * (the default) or the variable-length SlottedHeapPage one. This must
+     * match the layout the file was written with, see
+     * {@link HeapFileEncoder#convertSlotted}.
+     */
+    public void setSlotted(boolean slotted) {
+    	m_slotted = slotted;
+    }
+
+    /** @return true if this file uses the SlottedHeapPage layout. */
+    public boolean isSlotted() {
+    	return m_slotted;
+    }
+
+    /** Construct a page of this file's layout over the given bytes. */
+    HeapPage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+    	return m_slotted ? new SlottedHeapPage(pid, data) : new HeapPage(pid, data);
+    }
+
+    /**
+     * Set how many pages the file is grown by when a page is appended past
+     * its allocated end. Growing in large extents avoids extending the file
+     * (and its metadata) 4 KB at a time during bulk inserts.
+     *
+     * @param pages extent size in pages; 1 disables pre-extension
+     */
+    public void setExtentPages(int pages) {
+    	if (pages < 1)
+    		throw new IllegalArgumentException("extent must be at least one page");
+    	m_extentPages = pages;
+    }
+
+    /** @return the number of pages the file is grown by at a time. */
+    public int getExtentPages() {
+    	return m_extentPages;
+    }
+
+    /**
+     * Make sure the file has room for the first numPages pages, growing it
+     * by whole extents if it does not.
+     */
+    private synchronized void preallocate(int numPages) throws IOException {
+    	if (m_extentPages <= 1)
+    		return;
+    	FileChannel ch = getChannel();
+    	if (m_allocated < 0)
+    		m_allocated = ch.size();
+    	long needed = (long) numPages * m_pageSize;
+    	if (needed <= m_allocated)
+    		return;
+    	long extent = (long) m_extentPages * m_pageSize;
+    	long newLen = ((needed + extent - 1) / extent) * extent;
+    	m_raf.setLength(newLen);
+    	m_allocated = newLen;
+    }
+
+    /**
+     * Save the free-space map to its side file, so that the next open can
+     * use it, and give back any pre-extended space that was never written.
+     * Called for every table at shutdown; the file stays usable.
+     */
+    public synchronized void saveState() {
+    	try {
+    		if (m_fsm != null)
+    			m_fsm.save();
+    		if (m_channel != null && m_numPages != null
+    				&& m_allocated > (long) m_numPages.get() * m_pageSize) {
+    			m_channel.truncate((long) m_numPages.get() * m_pageSize);
+    			m_allocated = (long) m_numPages.get() * m_pageSize;
+    		}
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    }
+
+    /**
+     * Closes the channel backing this file. The file can still be used
+     * afterwards; the channel is simply reopened on the next page access.
+     * Called when the table is removed from the catalog.
+     */
+    public synchronized void close() {
+    	saveState();
+    	m_fsm = null;
+    	if (m_channel == null)
+    		return;
+    	try {
+    		m_allocated = -1;
+    		m_channel.close();
+    		m_raf.close();
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    	m_channel = null;
+    	m_raf = null;
+    	if (m_windows != null)
+    		m_windows.clear();
+    }
+
+    /**
+     * Reads len bytes at the given file offset into buf, retrying short
+     * reads. Bytes past the end of the file are left zeroed.
+     */
+    void readFully(ByteBuffer buf, long offset) throws IOException {
+    	FileChannel ch = getChannel();
+    	while (buf.hasRemaining()) {
+    		int n = ch.read(buf, offset);
+    		if (n < 0)
+    			break;
+    		offset += n;
+    	}
+    }
+
+    /**
+     * Writes all remaining bytes of buf at the given file offset.
+     */
+    void writeFully(ByteBuffer buf, long offset) throws IOException {
+    	FileChannel ch = getChannel();
+    	while (buf.hasRemaining())
+    		offset += ch.write(buf, offset);
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
     	
     	HeapPage pg = null;
-    	byte[] pageBytes = new byte[BufferPool.PAGE_SIZE];
     	
     	try {
-	    	RandomAccessFile raf = new RandomAccessFile(m_f, "r");
-	    	raf.seek(pid.pageNumber() * BufferPool.PAGE_SIZE);
-	    	raf.read(pageBytes, 0, BufferPool.PAGE_SIZE);
-	    	raf.close();
-	    	pg = new HeapPage((HeapPageId) pid, pageBytes);
+    		if (m_mmap) {
+    			ByteBuffer mapped = mappedPage(pid.pageNumber());
+    			if (mapped != null)
+    				return newPage((HeapPageId) pid, mapped);
+    		}
+    		ByteBuffer frame = BufferPool.takeReadFrame(m_pageSize);
+    		if (frame != null)
+    			return readInto(pid, frame);
+    		byte[] pageBytes = new byte[m_pageSize];
+    		readFully(ByteBuffer.wrap(pageBytes), (long) pid.pageNumber() * m_pageSize);
+	    	pg = newPage((HeapPageId) pid, ByteBuffer.wrap(pageBytes));
     	} catch (IOException e){
     		e.printStackTrace();
     	}
@@ -88,19 +333,71 @@ public class HeapFile implements DbFile {
     	return pg;
     }
 
+    /**
+     * Read the specified page into a buffer pool frame, which the page then
+     * uses as its storage instead of a newly allocated array.
+     *
+     * @param frame buffer to read into; reused, so any old contents are
+     *   overwritten
+     */
+    private HeapPage readInto(PageId pid, ByteBuffer frame) throws IOException {
+    	ByteBuffer buf = frame.duplicate();
+    	buf.clear();
+    	buf.limit(m_pageSize);
+    	readFully(buf, (long) pid.pageNumber() * m_pageSize);
+    	// past the end of the file: the frame may hold an older page
+    	while (buf.hasRemaining())
+    		buf.put((byte) 0);
+    	buf.flip();
+    	return newPage((HeapPageId) pid, buf);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for proj1
-    	try {
-	    	RandomAccessFile raf = new RandomAccessFile(m_f, "rw");
-	    	raf.seek(page.getId().pageNumber() * BufferPool.PAGE_SIZE);
-			raf.write(page.getPageData(), 0, BufferPool.PAGE_SIZE);
-			raf.close();
-    	} catch (IOException e){
-    		e.printStackTrace();
+    	int pgNo = page.getId().pageNumber();
+    	if (pgNo >= numPages())
+    		preallocate(pgNo + 1);
+    	writeFully(ByteBuffer.wrap(page.getPageData(), 0, m_pageSize),
+    			(long) pgNo * m_pageSize);
+    	grewTo(pgNo + 1);
+    }
+
+    /**
+     * Write pages with consecutive page numbers, given in page order, with
+     * one gathering write.
+     */
+    void writePages(List<Page> pages) throws IOException {
+    	int first = pages.get(0).getId().pageNumber();
+    	int end = first + pages.size();
+    	if (end > numPages())
+    		preallocate(end);
+    	ByteBuffer[] bufs = new ByteBuffer[pages.size()];
+    	for (int i = 0; i < bufs.length; i++)
+    		bufs[i] = ByteBuffer.wrap(pages.get(i).getPageData(), 0, m_pageSize);
+    	FileChannel ch = getChannel();
+    	// positional reads and writes don't use the channel's position;
+    	// gathering writes do, so they take turns
+    	synchronized (ch) {
+    		ch.position((long) first * m_pageSize);
+    		while (bufs[bufs.length - 1].hasRemaining())
+    			ch.write(bufs);
     	}
-    	
+    	grewTo(end);
+    }
+
+    /** Sync this file's written pages to disk. */
+    void force() throws IOException {
+    	getChannel().force(false);
+    }
+
+    /** An append past the end grows the cached page count. */
+    private void grewTo(int pages) {
+    	AtomicInteger n = pageCount();
+    	int cur;
+    	while ((cur = n.get()) < pages && !n.compareAndSet(cur, pages))
+    		;
     }
 
     /**
@@ -108,58 +405,189 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) Math.ceil(m_f.length() / BufferPool.PAGE_SIZE);
+        return pageCount().get();
+    }
+
+    /**
+     * Returns the in-memory page count, initializing it from the length of
+     * the file the first time. Only whole pages are counted, and zero-filled
+     * pages at the end are not: they are pre-extended space left behind by
+     * a crash, or empty pages, which hold no tuples in either layout.
+     */
+    private AtomicInteger pageCount() {
+    	AtomicInteger n = m_numPages;
+    	if (n != null)
+    		return n;
+    	synchronized (this) {
+    		if (m_numPages == null)
+    			m_numPages = new AtomicInteger(usedPages((int) (m_f.length() / m_pageSize)));
+    		return m_numPages;
+    	}
+    }
+
+    /**
+     * @return pages, less the zero-filled pages at the end of the file; an
+     *   empty table keeps its first page
+     */
+    private int usedPages(int pages) {
+    	try {
+    		ByteBuffer buf = ByteBuffer.allocate(m_pageSize);
+    		for (; pages > 1; pages--) {
+    			buf.clear();
+    			readFully(buf, (long) (pages - 1) * m_pageSize);
+    			for (int i = 0; i < m_pageSize; i++)
+    				if (buf.get(i) != 0)
+    					return pages;
+    		}
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    	return pages;
+    }
+
+    /**
+     * Returns the free-space map for this file, loading it on first use.
+     */
+    synchronized FreeSpaceMap freeSpaceMap() {
+    	if (m_fsm == null)
+    		m_fsm = FreeSpaceMap.open(m_f, numPages());
+    	return m_fsm;
+    }
+
+    /**
+     * Bring the free-space map up to date with the contents of a page, e.g.
+     * after BufferPool restores a page's before image on abort.
+     */
+    public void updateFreeSpace(HeapPage p) {
+    	freeSpaceMap().setFree(p.getId().pageNumber(), p.getNumEmptySlots() > 0);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-    	PageId pid = null;
-    	HeapPage p = null;
+    	BufferPool bp = Database.getBufferPool();
+    	FreeSpaceMap fsm = freeSpaceMap();
     	ArrayList<Page> pgs = new ArrayList<Page>();
-    	//figure out the pid of all the pages, and iterate over them.
-    	int numPages = numPages();
-    	for (int i=0; i<numPages; i++){
-    		pid = new HeapPageId(this.getId(), i);
-    		p = (HeapPage) Database.getBufferPool().getPage(tid, pid, simpledb.Permissions.READ_WRITE);
-    		if (p.getNumEmptySlots() > 0){
-    			p.insertTuple(t);
+
+    	// only visit (and lock) pages the free-space map says may have room
+    	for (int i = fsm.nextCandidate(0); i >= 0 && i < numPages(); i = fsm.nextCandidate(i + 1)) {
+    		PageId pid = new HeapPageId(this.getId(), i);
+    		boolean held = bp.holdsLock(tid, pid);
+    		HeapPage p = pageToInsert(tid, pid);
+    		if (insertInto(tid, p, t)){
+    			if (p.getNumEmptySlots() == 0)
+    				fsm.setFree(i, false);
     	    	pgs.add(p);
     	    	return pgs;
-    		} else {
-    			//release the lock on the page, if no space is found to insert a tuple.
-    			//however, this is potentially hazardous, because tid might have an older lock on it.
-    			//Database.getBufferPool().releasePage(tid, pid);
     		}
+    		// empty slots whose deletes are not committed yet still count
+    		if (!p.hasRoomFor(t))
+    			fsm.setFree(i, false);
+    		// we only looked at the page to find it full, so the lock can go,
+    		// unless the transaction held it before we came along
+    		if (!held)
+    			bp.releasePage(tid, pid);
+    	}
+
+    	// no room anywhere: extend the file by an empty page, then insert
+    	// into it through the buffer pool like any other page
+    	for (;;) {
+    		int pgNo;
+    		synchronized (this) {
+    			pgNo = numPages();
+    			writePage(newPage(new HeapPageId(getId(), pgNo),
+    					ByteBuffer.wrap(HeapPage.createEmptyPageData(m_pageSize))));
+    			fsm.setFree(pgNo, true);
+    		}
+    		HeapPage newPg = pageToInsert(tid, new HeapPageId(getId(), pgNo));
+    		// others inserting at the same time may have filled it already
+    		if (!insertInto(tid, newPg, t))
+    			continue;
+    		if (newPg.getNumEmptySlots() == 0)
+    			fsm.setFree(pgNo, false);
+    		pgs.add(newPg);
+    		return pgs;
     	}
-		HeapPage newPg = new HeapPage(new HeapPageId(getId(), numPages), 
-		HeapPage.createEmptyPageData());
-		newPg.insertTuple(t);
-		
-		RandomAccessFile f = new RandomAccessFile(m_f, "rw");
-		f.seek(numPages * BufferPool.PAGE_SIZE);
-		f.write(newPg.getPageData(), 0, BufferPool.PAGE_SIZE);
-		f.close();
-    	
-		pgs.add(newPg);
-        return pgs;
         // not necessary for proj1
     }
 
+    /**
+     * Get a page to insert into: with an X lock if the file is slotted,
+     * and otherwise with an IX lock, for insertInto to lock just the slot
+     * it fills.
+     */
+    private HeapPage pageToInsert(TransactionId tid, PageId pid)
+            throws DbException, TransactionAbortedException {
+    	BufferPool bp = Database.getBufferPool();
+    	if (m_slotted)
+    		return (HeapPage) bp.getPage(tid, pid, simpledb.Permissions.READ_WRITE);
+    	return (HeapPage) bp.getPageForUpdate(tid, pid);
+    }
+
+    /**
+     * Insert t into a page got with pageToInsert. A fixed-width page takes
+     * it in the first empty slot whose tuple lock tid gets, so a slot
+     * freed by an uncommitted delete is not reused until the delete
+     * commits.
+     * @return false if the page has no room for t
+     */
+    private boolean insertInto(TransactionId tid, HeapPage p, Tuple t) throws DbException {
+    	if (m_slotted) {
+    		if (!p.hasRoomFor(t))
+    			return false;
+    		p.insertTuple(t);
+    		return true;
+    	}
+    	BufferPool bp = Database.getBufferPool();
+    	boolean tupleLocked = bp.locksTuples(tid, p.getId());
+    	synchronized (p) {
+    		for (int i = 0; i < p.numSlots; i++) {
+    			if (!p.isSlotUsed(i) && bp.tryLockRecord(tid, new RecordId(p.getId(), i))) {
+    				p.insertTuple(tid, t, i, tupleLocked);
+    				return true;
+    			}
+    		}
+    	}
+    	return false;
+    }
+
     // see DbFile.java for javadocs
     public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
     	PageId pgId = t.getRecordId().getPageId();
-    	HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, pgId, simpledb.Permissions.READ_WRITE);
-        pg.deleteTuple(t);
+    	BufferPool bp = Database.getBufferPool();
+    	HeapPage pg;
+    	if (m_slotted) {
+    		pg = (HeapPage) bp.getPage(tid, pgId, simpledb.Permissions.READ_WRITE);
+    		pg.deleteTuple(t);
+    	} else {
+    		// lock just the tuple, so deletes of other tuples of the page
+    		// go on at the same time
+    		pg = (HeapPage) bp.getPageForUpdate(tid, pgId);
+    		bp.lockRecord(tid, t.getRecordId());
+    		pg.deleteTuple(tid, t, bp.locksTuples(tid, pgId));
+    	}
+        freeSpaceMap().setFree(pgId.pageNumber(), true);
         return pg;
         // not necessary for proj1
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(final TransactionId tid) {    	
+    	return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy pred.
+     * The predicate is checked against each page's raw data before a tuple
+     * is built, so rows that fail it are never materialized.
+     *
+     * @param pred the predicate to filter with, or null for all tuples
+     * @see HeapPage#iterator(Predicate)
+     */
+    public DbFileIterator iterator(final TransactionId tid, final Predicate pred) {
 //         some code goes here
     	
     	DbFileIterator dbfi = new DbFileIterator() {
@@ -174,6 +602,9 @@ public class HeapFile implements DbFile {
         	TransactionId m_tid = tid;
         	
         	Iterator<Tuple> titr = null;
+        	ReadAhead readAhead = null;
+        	// private frames for a table too big to cache; null otherwise
+        	ScanRing ring = null;
         	
 			@Override
 			public void rewind() throws DbException, TransactionAbortedException {
@@ -187,8 +618,9 @@ public class HeapFile implements DbFile {
 					return;
 				
 				try {
-					currPg = (HeapPage) Database.getBufferPool().getPage(m_tid, new HeapPageId(tblid, pgno), simpledb.Permissions.READ_ONLY);
-					titr = currPg.iterator();
+					readAhead.access(pgno, numPages());
+					currPg = (HeapPage) Database.getBufferPool().getPage(m_tid, new HeapPageId(tblid, pgno), simpledb.Permissions.READ_ONLY, ring);
+					titr = currPg.iterator(pred);
 					if (titr == null)
 						throw new DbException("blah blah blah");
 					pgno++;
@@ -204,6 +636,8 @@ public class HeapFile implements DbFile {
 			public void open() throws DbException, TransactionAbortedException {
 				open = 1;
 				pgno = 0;
+				ring = Database.getBufferPool().scanRing(getId(), numPages());
+				readAhead = new ReadAhead(tblid, ring);
 				nextPage();
 			}
 			
@@ -212,7 +646,8 @@ public class HeapFile implements DbFile {
 					NoSuchElementException {
 				if (open != 1)
 					throw new NoSuchElementException();
-				if (!titr.hasNext())
+				// skip pages with no (matching) tuples
+				while (!titr.hasNext() && pgno < numPages())
 					nextPage();
 				return titr.next();
 			}
@@ -223,7 +658,7 @@ public class HeapFile implements DbFile {
 					return false;
 				if (titr == null) //TODO: remove
 					throw new DbException(Integer.toString(pgno) + Integer.toString(open) + Integer.toString(numPages()) + m_f.getPath());
-				if (!titr.hasNext())
+				while (!titr.hasNext() && pgno < numPages())
 					nextPage();
 				if (titr.hasNext())
 					return true;
@@ -234,6 +669,7 @@ public class HeapFile implements DbFile {
 			public void close() {
 				open = 0;
 				titr = null;
+				ring = null;
 			}
 		};
         return dbfi;
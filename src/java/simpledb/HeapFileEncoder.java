@@ -223,4 +223,75 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file in the
+   * variable-length layout of {@link SlottedHeapPage}, in which strings are
+   * stored without padding. The input format is as for
+   * {@link #convert(File, File, int, int, Type[], char)}; blank lines are
+   * skipped. The resulting file must be opened with
+   * {@link HeapFile#setSlotted} (catalog option layout=slotted).
+   *
+   * @throws IOException if the input/output file can't be opened, a
+   *   malformed input line is encountered, or a tuple does not fit on a page
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FileOutputStream os = new FileOutputStream(outFile);
+    String sep = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+
+    ArrayList<byte[]> records = new ArrayList<byte[]>();
+    int used = SlottedHeapPage.HEADER_SIZE;
+    int npages = 0;
+    try {
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.trim().length() == 0)
+                continue;
+            String[] vals = line.split(sep, -1);
+            if (vals.length != numFields)
+                throw new IOException("BAD LINE : " + line);
+
+            ByteArrayOutputStream recBAOS = new ByteArrayOutputStream();
+            DataOutputStream recStream = new DataOutputStream(recBAOS);
+            for (int i = 0; i < numFields; i++) {
+                Field f;
+                if (typeAr[i] == Type.INT_TYPE) {
+                    try {
+                        f = new IntField(Integer.parseInt(vals[i].trim()));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("BAD LINE : " + line);
+                    }
+                } else {
+                    f = new StringField(vals[i].trim(), Type.STRING_LEN);
+                }
+                typeAr[i].serializeCompact(f, recStream);
+            }
+            recStream.flush();
+            byte[] rec = recBAOS.toByteArray();
+
+            int need = rec.length + SlottedHeapPage.SLOT_SIZE;
+            if (SlottedHeapPage.HEADER_SIZE + need > npagebytes)
+                throw new IOException("tuple does not fit on a page : " + line);
+            if (used + need > npagebytes) {
+                os.write(SlottedHeapPage.buildPageData(
+                        records.toArray(new byte[0][]), npagebytes));
+                npages++;
+                records.clear();
+                used = SlottedHeapPage.HEADER_SIZE;
+            }
+            records.add(rec);
+            used += need;
+        }
+
+        // flush the last page, or an empty page if the file is empty
+        if (records.size() > 0 || npages == 0)
+            os.write(SlottedHeapPage.buildPageData(
+                    records.toArray(new byte[0][]), npagebytes));
+    } finally {
+        br.close();
+        os.close();
+    }
+  }
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import java.lang.*;
 
@@ -17,52 +18,109 @@ public class HeapPage implements Page {
 
     HeapPageId pid;
     TupleDesc td;
+    int pageSize;
     byte header[];
     Tuple tuples[];
     int numSlots;
 
+    /** The page's on-disk bytes. Tuples are decoded from here on demand, so
+     *  slots nobody looks at are never turned into Tuple objects; entries of
+     *  tuples[] stay null until their slot is first read or written. The
+     *  buffer is never written to. It may be a BufferPool frame, in which
+     *  case {@link #detach} swaps in a copy before the frame is reused;
+     *  readers take a fresh view of data for every decode and check it is
+     *  still current afterwards. */
+    volatile ByteBuffer data;
+    /** Byte offset of each field within a tuple. */
+    int fieldOffsets[];
+
+    /** Before image, captured on the first modification after the page was
+     *  loaded or last committed. Null while the page is unmodified, in
+     *  which case the page is its own before image. */
     byte[] oldData;
+    /** True until the page is first modified; data still matches header
+     *  and tuples exactly. */
+    boolean pristine = true;
     
     TransactionId dirtier = null;
 
+    /** A tuple inserted into or deleted from a slot under a tuple lock. */
+    static final class SlotChange {
+        final int slot;
+        /** the tuple deleted, or null if one was inserted */
+        final Tuple deleted;
+
+        SlotChange(int slot, Tuple deleted) {
+            this.slot = slot;
+            this.deleted = deleted;
+        }
+    }
+
+    /** The changes each transaction made under tuple locks, in order, so
+     *  that one transaction's can be committed or undone while others are
+     *  still changing the page. Null until the first such change. Guarded
+     *  by the page's monitor. */
+    Map<TransactionId, List<SlotChange>> changes;
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
+     * <p> where the page size is that of the table the page belongs to,
+     * see {@link Catalog#getPageSize}.
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page's bytes, starting at
+     * the buffer's current position. The buffer may be a slice of a
+     * memory-mapped file, in which case the page is decoded straight out of
+     * the mapping without first copying it into a byte array.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, true);
+    }
+
+    /**
+     * Set up the parts shared by every page layout. The header is only
+     * parsed if fixed is true; subclasses with a different layout parse
+     * their own.
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, boolean fixed) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.data = data.slice();
+        if (!fixed)
+            return;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
 
-        setBeforeImage();
+        // allocate and read the header slots of this page; the tuples
+        // themselves are decoded lazily by getTuple
+        header = new byte[getHeaderSize()];
+        if (this.data.remaining() < header.length + numSlots * td.getSize())
+            throw new IOException("page data too short");
+        this.data.duplicate().get(header);
+        tuples = new Tuple[numSlots];
     }
 
     /** Retrieve the number of tuples on this page.
@@ -71,7 +129,7 @@ public class HeapPage implements Page {
     private int getNumTuples() {        
         // some code goes here
     //right now i think td.getSize() returns the sum size of the elements of the tuple, not the size of a single tuple.
-        return (int)Math.floor((BufferPool.PAGE_SIZE*8) / (td.getSize() * 8 + 1));
+        return (int)Math.floor((pageSize*8) / (td.getSize() * 8 + 1));
 
     }
 
@@ -89,7 +147,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid, oldData != null ? oldData : getPageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -98,8 +156,46 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Make the current contents the before image. Nothing is copied until
+     * the page is next modified.
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = null;
+    }
+
+    /**
+     * Capture the before image if this is the first modification since the
+     * page was loaded or committed. Must be called before the page changes.
+     */
+    void captureBeforeImage() {
+        if (oldData != null)
+            return;
+        if (pristine) {
+            // untouched since it was read: the raw bytes are the image
+            ByteBuffer src;
+            do {
+                src = data;
+                oldData = new byte[src.capacity()];
+                src.duplicate().get(oldData);
+            } while (src != data);
+        } else {
+            oldData = getPageData();
+        }
+        pristine = false;
+    }
+
+    /**
+     * Copy the page's bytes out of the buffer pool frame it was read into,
+     * so that the page stays usable after the frame is given to another
+     * page.
+     */
+    void detach() {
+        ByteBuffer src = data;
+        ByteBuffer copy = ByteBuffer.allocate(src.capacity());
+        copy.put(src.duplicate());
+        copy.clear();
+        data = copy;
     }
 
     /**
@@ -111,40 +207,71 @@ public class HeapPage implements Page {
     //throw new UnsupportedOperationException("implement this");
     }
 
+    /** @return the offset of slot slotId's tuple within the page data */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified slot, decoding it from the page
+     * data the first time it is asked for.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    public Tuple getTuple(int slotId) throws NoSuchElementException {
+        if (!isSlotUsed(slotId))
             return null;
-        }
+        if (tuples[slotId] != null)
+            return tuples[slotId];
 
         // read fields in the tuple
+        ByteBuffer src = data;
+        ByteBuffer buf = src.duplicate();
+        buf.position(slotOffset(slotId));
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = td.getFieldType(j).parse(buf);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+        if (src != data)
+            return getTuple(slotId); // detached meanwhile; read the copy
 
+        tuples[slotId] = t;
         return t;
     }
 
+    /**
+     * Returns a single field of the tuple in the specified slot. If the
+     * tuple has not been materialized only that field is decoded, and no
+     * Tuple is built.
+     *
+     * @return the field, or null if the slot is empty
+     */
+    public Field getField(int slotId, int fieldNo) throws NoSuchElementException {
+        if (!isSlotUsed(slotId))
+            return null;
+        if (tuples[slotId] != null)
+            return tuples[slotId].getField(fieldNo);
+
+        ByteBuffer src = data;
+        ByteBuffer buf = src.duplicate();
+        buf.position(slotOffset(slotId) + fieldOffsets[fieldNo]);
+        try {
+            Field f = td.getFieldType(fieldNo).parse(buf);
+            return src == data ? f : getField(slotId, fieldNo);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -157,7 +284,7 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
+        int len = pageSize;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
@@ -187,6 +314,24 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never decoded: its bytes are unchanged
+            if (tuples[i] == null) {
+                byte[] raw = new byte[td.getSize()];
+                ByteBuffer src;
+                do {
+                    src = data;
+                    ByteBuffer buf = src.duplicate();
+                    buf.position(slotOffset(i));
+                    buf.get(raw);
+                } while (src != data);
+                try {
+                    dos.write(raw);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -200,7 +345,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = pageSize - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -227,8 +372,18 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Generate a byte array corresponding to an empty HeapPage of a table
+     * with pages of the given size.
+     *
+     * @param pageSize bytes per page of the table
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -246,6 +401,7 @@ public class HeapPage implements Page {
     		throw new DbException("Tuple is not on this page");
     	if (!isSlotUsed(slotNo))
     		throw new DbException("Tuple slot is already empty.");
+    	captureBeforeImage();
     	markSlotUsed(slotNo, false);
     }
 
@@ -261,6 +417,7 @@ public class HeapPage implements Page {
         // not necessary for lab1
     	for (int i=0; i<getNumTuples(); i++)
     		if (!isSlotUsed(i)){
+    			captureBeforeImage();
     			markSlotUsed(i, true);
     			t.m_rid = new RecordId(getId(), i);
     			tuples[i] = t;
@@ -269,17 +426,154 @@ public class HeapPage implements Page {
     	throw new DbException("Page is full - no empty slots");
     }
 
+    /**
+     * Deletes t on behalf of tid. If tid holds t's tuple lock, rather than
+     * an X lock on the page, or the page has other tuple changes, the
+     * delete is remembered so that it can be committed or undone alone.
+     */
+    synchronized void deleteTuple(TransactionId tid, Tuple t, boolean tupleLocked) throws DbException {
+        int slotNo = t.m_rid.tupleno;
+        if (!t.m_rid.pid.equals(getId()))
+            throw new DbException("Tuple is not on this page");
+        if (!isSlotUsed(slotNo))
+            throw new DbException("Tuple slot is already empty.");
+        Tuple old = getTuple(slotNo);
+        captureBeforeImage();
+        markSlotUsed(slotNo, false);
+        if (tupleLocked || changes != null)
+            changesOf(tid).add(new SlotChange(slotNo, old));
+        dirtier = tid;
+    }
+
+    /**
+     * Inserts t into the empty slot slotNo on behalf of tid, remembering
+     * the insert like {@link #deleteTuple(TransactionId, Tuple, boolean)}.
+     */
+    synchronized void insertTuple(TransactionId tid, Tuple t, int slotNo, boolean tupleLocked) throws DbException {
+        if (isSlotUsed(slotNo))
+            throw new DbException("Tuple slot is already used.");
+        captureBeforeImage();
+        markSlotUsed(slotNo, true);
+        t.m_rid = new RecordId(getId(), slotNo);
+        tuples[slotNo] = t;
+        if (tupleLocked || changes != null)
+            changesOf(tid).add(new SlotChange(slotNo, null));
+        dirtier = tid;
+    }
+
+    private List<SlotChange> changesOf(TransactionId tid) {
+        if (changes == null)
+            changes = new HashMap<TransactionId, List<SlotChange>>();
+        List<SlotChange> l = changes.get(tid);
+        if (l == null) {
+            l = new ArrayList<SlotChange>();
+            changes.put(tid, l);
+        }
+        return l;
+    }
+
+    /** @return true if some transaction changed this page under tuple locks */
+    synchronized boolean hasTupleChanges() {
+        return changes != null && !changes.isEmpty();
+    }
+
+    /** @return true if tid has uncommitted changes on this page */
+    synchronized boolean isDirtiedBy(TransactionId tid) {
+        return (dirtier != null && dirtier.equals(tid)) || (changes != null && changes.containsKey(tid));
+    }
+
+    /**
+     * Undoes the changes of every transaction but keep, most recent first.
+     * The page is not marked dirty.
+     */
+    private void undoAllBut(TransactionId keep) {
+        for (Map.Entry<TransactionId, List<SlotChange>> e : changes.entrySet())
+            if (keep == null || !keep.equals(e.getKey()))
+                undo(e.getValue());
+    }
+
+    private void undo(List<SlotChange> l) {
+        for (int i = l.size() - 1; i >= 0; i--) {
+            SlotChange c = l.get(i);
+            markSlotUsed(c.slot, c.deleted != null);
+            tuples[c.slot] = c.deleted;
+        }
+    }
+
+    /**
+     * @return a copy of this page without the tuple changes of the
+     *         transactions other than keep, which may be null
+     */
+    synchronized HeapPage committedImage(TransactionId keep) {
+        HeapPage copy;
+        try {
+            copy = new HeapPage(pid, getPageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+        if (changes != null) {
+            copy.pristine = false;
+            copy.changes = changes;
+            copy.undoAllBut(keep);
+            copy.changes = null;
+        }
+        return copy;
+    }
+
+    /**
+     * Commits tid's changes: they become part of the before image, which is
+     * the page without the other transactions' changes.
+     * @return the new before image
+     */
+    synchronized HeapPage commit(TransactionId tid) {
+        HeapPage image = committedImage(tid);
+        if (changes != null)
+            changes.remove(tid);
+        if (!hasTupleChanges()) {
+            changes = null;
+            oldData = null;
+            dirtier = null;
+        } else {
+            oldData = image.getPageData();
+            if (dirtier != null && dirtier.equals(tid))
+                dirtier = changes.keySet().iterator().next();
+        }
+        return image;
+    }
+
+    /**
+     * Undoes tid's tuple changes in place, leaving those of other
+     * transactions.
+     */
+    synchronized void rollback(TransactionId tid) {
+        List<SlotChange> l = changes == null ? null : changes.remove(tid);
+        if (l != null)
+            undo(l);
+        if (!hasTupleChanges()) {
+            changes = null;
+            oldData = null;
+            dirtier = null;
+        } else if (dirtier != null && dirtier.equals(tid)) {
+            dirtier = changes.keySet().iterator().next();
+        }
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
      */
-    public void markDirty(boolean dirty, TransactionId tid) {
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	// not necessary for lab1
-    	if (dirty)
+    	if (dirty) {
+    		captureBeforeImage();
     		dirtier = tid;
-    	else
+    	}
+    	else {
     		dirtier = null;
+    		changes = null;
+    	}
     }
 
     /**
@@ -291,13 +585,20 @@ public class HeapPage implements Page {
         return dirtier;      
     }
 
+    /**
+     * @return true if t can be inserted into this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
         // some code goes here
 	int empty = 0;
-	for(int i = 0; i < header.length * 8; i++){
+	for(int i = 0; i < numSlots; i++){
 	    if(!isSlotUsed(i)){
 	    	empty++;
 	    }
@@ -310,7 +611,7 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-    	if (i < 0 || i >= header.length * 8)
+    	if (i < 0 || i >= numSlots)
     		return false;
         return (header[(int)Math.floor(i/8)] >> (i % 8) & 1) == 1;
     }
@@ -332,20 +633,41 @@ public class HeapPage implements Page {
     	header[whichByte] = b;
     }
 
-    private class HPageIter<Tuple> implements Iterator<Tuple> {
+    /**
+     * Iterates over the used slots of this page, materializing each tuple
+     * only when next() hands it out. If a predicate is given, slots whose
+     * field fails it are skipped after decoding just that one field.
+     */
+    private class HPageIter implements Iterator<Tuple> {
 
-    	Iterator<Tuple> m_it;
+    	Predicate m_pred;
+    	int m_slot = -1;
     	
-        public HPageIter(Iterator<Tuple> it) {
-                m_it = it;
+        public HPageIter(Predicate pred) {
+                m_pred = pred;
+                advance();
+        }
+
+        private void advance() {
+                for (m_slot++; m_slot < numSlots; m_slot++) {
+                    if (!isSlotUsed(m_slot))
+                        continue;
+                    if (m_pred == null || getField(m_slot, m_pred.getField())
+                            .compare(m_pred.getOp(), m_pred.getOperand()))
+                        return;
+                }
         }
 
         public boolean hasNext() {
-                return m_it.hasNext();
+                return m_slot < numSlots;
         }
 
         public Tuple next() {
-                return m_it.next();
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = getTuple(m_slot);
+                advance();
+                return t;
         }
         
         public void remove() {
@@ -360,13 +682,16 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-		ArrayList<Tuple> iter = new ArrayList<Tuple>();	
-		for(int i = 0; i < header.length * 8; i++){
-		    if(isSlotUsed(i)){
-		    	iter.add(tuples[i]);
-		    }
-		}
-        return new HPageIter<Tuple>(iter.iterator());
+        return new HPageIter(null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy pred.
+     *   The predicate is evaluated against the raw page data, so tuples that
+     *   fail it are never materialized.
+     */
+    public Iterator<Tuple> iterator(Predicate pred) {
+        return new HPageIter(pred);
     }
 
 }
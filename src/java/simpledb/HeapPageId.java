@@ -35,14 +35,14 @@ public class HeapPageId implements PageId {
     }
 
     /**
-     * @return a hash code for this page, represented by the concatenation of
-     *   the table number and the page number (needed if a PageId is used as a
-     *   key in a hash table in the BufferPool, for example.)
+     * @return a hash code for this page, combining the table number and
+     *   the page number (needed if a PageId is used as a key in a hash table
+     *   in the BufferPool, for example.)
      * @see BufferPool
      */
     public int hashCode() {
         // some code goes here
-	return (String.valueOf(tableId) + String.valueOf(pgNo)).hashCode();
+	return 31 * tableId + pgNo;
         //throw new UnsupportedOperationException("implement this");
     }
 
@@ -55,10 +55,11 @@ public class HeapPageId implements PageId {
      */
     public boolean equals(Object o) {
         // some code goes here
-	if (o == null){
+	if (!(o instanceof HeapPageId)){
 	    return false;
 	}
-        return this.hashCode() == o.hashCode();
+	HeapPageId other = (HeapPageId) o;
+        return tableId == other.tableId && pgNo == other.pgNo;
     }
 
     /**
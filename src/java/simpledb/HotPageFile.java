@@ -0,0 +1,62 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HotPageFile stores the list of pages a BufferPool held, so that a
+ * restarted pool can load them again before queries ask for them (see
+ * {@link BufferPool#setHotPageFile}). Only page ids are stored, most
+ * valuable first: a table id and page number per page, after a header
+ * with a magic number and the page count.
+ * <p>
+ * The list is written to a temporary file that then replaces the old one,
+ * so a crash while saving leaves the previous list intact.
+ */
+class HotPageFile {
+
+    private static final int MAGIC = 0x53444257; // "SDBW"
+
+    /** Replace the contents of f with pids. */
+    static void write(File f, List<PageId> pids) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                out.writeInt(pid.getTableId());
+                out.writeInt(pid.pageNumber());
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(f)) {
+            // renameTo does not replace an existing file everywhere
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("could not replace " + f);
+        }
+    }
+
+    /** @return the pages listed in f, or none if f does not exist. */
+    static List<PageId> read(File f) throws IOException {
+        List<PageId> pids = new ArrayList<PageId>();
+        if (!f.exists())
+            return pids;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(f + " is not a hot page file");
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                int tableId = in.readInt();
+                pids.add(new HeapPageId(tableId, in.readInt()));
+            }
+        } finally {
+            in.close();
+        }
+        return pids;
+    }
+}
@@ -57,6 +57,36 @@ public class IntHistogram {
 //    	System.out.println("v: " + v + ", bucket: " + whichBucket);
     }
 
+    /**
+     * Add count occurrences of value v to the histogram.
+     */
+    public void addValue(int v, int count) {
+    	int whichBucket = (v-m_min)/m_sizeOfBucket;
+    	if (whichBucket >= m_counter.length)
+    		whichBucket = m_counter.length - 1;
+    	assert v >= m_min;
+    	assert v <= m_max;
+    	m_counter[whichBucket] += count;
+    	m_numTuples += count;
+    }
+
+    /**
+     * Add the values counted by another histogram, whose range must lie
+     * within this one's. Each of other's buckets is added as if all its
+     * values were at the bucket's midpoint, so the result is only exact if
+     * other's buckets are no wider than this histogram's.
+     */
+    public void addAll(IntHistogram other) {
+    	for (int b=0; b<other.m_buckets; b++) {
+    		int c = other.m_counter[b];
+    		if (c == 0)
+    			continue;
+    		long lo = other.m_min + (long) b * other.m_sizeOfBucket;
+    		long hi = Math.min(lo + other.m_sizeOfBucket - 1, other.m_max);
+    		addValue((int) ((lo + hi) / 2), c);
+    	}
+    }
+
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
      * 
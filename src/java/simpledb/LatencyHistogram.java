@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in power-of-two buckets of nanoseconds: bucket 0 holds
+ * zero, and bucket i > 0 latencies of at least 2^(i-1) and less than 2^i
+ * ns. Percentiles are reported as the upper bound of their bucket, so they
+ * are accurate to within a factor of two.
+ */
+class LatencyHistogram {
+
+    /** The last bucket also holds everything above 2^38 ns (about 4.6 minutes). */
+    static final int BUCKETS = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final Counter totalNanos = new Counter();
+
+    void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        int b = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+        counts.incrementAndGet(b);
+        totalNanos.add(nanos);
+    }
+
+    /** @return the number of latencies recorded. */
+    long count() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            n += counts.get(i);
+        return n;
+    }
+
+    /** @return the mean latency in ns, or 0 if none were recorded. */
+    long meanNanos() {
+        long n = count();
+        return n == 0 ? 0 : totalNanos.sum() / n;
+    }
+
+    /**
+     * @param p a fraction between 0 and 1
+     * @return the upper bound in ns of the bucket holding the p-quantile, or
+     *   0 if none were recorded
+     */
+    long percentileNanos(double p) {
+        long n = count();
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(p * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return i == 0 ? 0 : 1L << i;
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        totalNanos.reset();
+    }
+
+    /** @return e.g. "12 in 80/512 us mean/p99" */
+    public String toString() {
+        return count() + " in " + meanNanos() / 1000 + "/" + percentileNanos(0.99) / 1000 + " us mean/p99";
+    }
+}
@@ -0,0 +1,645 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import simpledb.PLock.Mode;
+import simpledb.PLock.TableLockId;
+
+/**
+ * The table, page and tuple locks of one BufferPool. Each locked object
+ * has a LockQueue of the transactions holding it and a FIFO queue of the
+ * requests ({@link PLock}s) waiting for it. A blocked request parks until
+ * a release grants it and wakes it.
+ * <p>
+ * Locking is hierarchical: before locking a page a transaction takes an
+ * intention lock (IS or IX) on its table, and a transaction holding a
+ * table S or X lock needs no page locks at all. A scan can thus lock a
+ * table once, and a transaction that locks more than the escalation
+ * threshold's pages of one table gets a table lock instead.
+ * <p>
+ * A transaction that inserts or deletes single tuples takes an IX lock on
+ * their page and an X lock on each tuple's RecordId, so transactions
+ * changing different tuples of one page do not wait for each other. A
+ * page X lock covers the tuples of the page.
+ * <p>
+ * Deadlocks are found when they form: a transaction that blocks searches
+ * the waits-for graph for a path back to itself, and if there is one, the
+ * policy's victim among the transactions on the cycle is aborted.
+ * <p>
+ * The lock queues, and the locks each transaction holds, are kept in
+ * shards picked by hash, each with its own monitor, so that transactions
+ * locking different things seldom meet on one. Managers share nothing,
+ * so BufferPools in one JVM lock independently.
+ */
+public class LockManager {
+
+    /** Which transaction on a waits-for cycle is aborted. */
+    public enum Victim {
+        /** the one that began last */
+        YOUNGEST,
+        /** the one holding the fewest locks, then the youngest */
+        FEWEST_LOCKS
+    }
+
+
+    /** The locks one transaction holds. */
+    static class Held {
+        final ConcurrentHashMap<Object, Mode> modes = new ConcurrentHashMap<Object, Mode>();
+        /** Pages and tuples locked per table; updated only by the transaction itself. */
+        final Map<Integer, Integer> locks = new HashMap<Integer, Integer>();
+
+        synchronized int count(int tableId, int delta) {
+            Integer n = locks.get(tableId);
+            int now = (n == null ? 0 : n) + delta;
+            locks.put(tableId, now);
+            return now;
+        }
+    }
+
+    /** Default number of shards. */
+    static final int NUM_SHARDS = 16;
+
+    /**
+     * The queues of the locks, and the locks held by the transactions,
+     * that hash to one shard. Guarded by the shard's monitor.
+     */
+    static final class Shard {
+        final Map<Object, LockQueue> queues = new HashMap<Object, LockQueue>();
+        final Map<TransactionId, Held> held = new HashMap<TransactionId, Held>();
+    }
+
+    private final Shard[] m_shards;
+    /** The request each blocked transaction waits on: the waits-for graph's nodes with out-edges. */
+    private final ConcurrentHashMap<TransactionId, PLock> m_blocked = new ConcurrentHashMap<TransactionId, PLock>();
+    /** Serializes deadlock searches, so that one cycle yields one victim. */
+    private final Object m_detector = new Object();
+    private volatile Victim m_victim = Victim.YOUNGEST;
+    /** Page and tuple locks on one table after which a transaction locks the table instead. */
+    static final int ESCALATE_PAGES = 1000;
+    private volatile int m_escalateAt = ESCALATE_PAGES;
+    /** Time spent waiting for locks; see {@link Metrics}. */
+    final LockStats m_stats = new LockStats();
+
+    public LockManager() {
+        this(NUM_SHARDS);
+    }
+
+    /** @param shards the number of shards, rounded up to a power of two */
+    public LockManager(int shards) {
+        int n = 1;
+        while (n < shards)
+            n *= 2;
+        m_shards = new Shard[n];
+        for (int i = 0; i < n; i++)
+            m_shards[i] = new Shard();
+    }
+
+    private Shard shardFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return m_shards[h & (m_shards.length - 1)];
+    }
+
+    /**
+     * The holders of one lock and the requests waiting for it, in arrival
+     * order. Guarded by its own monitor. A queue that becomes empty is
+     * removed from its shard and marked removed, so that a request that
+     * found it just before must look again.
+     */
+    final class LockQueue {
+        final Object key;
+        final Map<TransactionId, Mode> holders = new HashMap<TransactionId, Mode>();
+        final LinkedList<PLock> waiting = new LinkedList<PLock>();
+        boolean removed;
+
+        LockQueue(Object key) {
+            this.key = key;
+        }
+
+        /** @return true if tid may hold mode alongside the other holders */
+        boolean compatible(TransactionId tid, Mode mode) {
+            for (Map.Entry<TransactionId, Mode> e : holders.entrySet())
+                if (!e.getKey().equals(tid) && !mode.compatible(e.getValue()))
+                    return false;
+            return true;
+        }
+
+        /** @return the mode tid must hold to have both what it holds and mode */
+        Mode want(TransactionId tid, Mode mode) {
+            Mode held = holders.get(tid);
+            return held == null ? mode : held.join(mode);
+        }
+
+        /**
+         * Grants want to tid if it already holds it, or if it is compatible
+         * and no earlier request is waiting. An upgrade does not wait behind
+         * queued requests, since they are waiting for tid in any case.
+         */
+        boolean tryGrant(TransactionId tid, Mode want) {
+            Mode held = holders.get(tid);
+            if (held == want)
+                return true;
+            if (!compatible(tid, want) || (held == null && !waiting.isEmpty()))
+                return false;
+            grant(tid, want);
+            return true;
+        }
+
+        private void grant(TransactionId tid, Mode mode) {
+            holders.put(tid, mode);
+            heldBy(tid).modes.put(key, mode);
+        }
+
+        /** Queues a request; upgrades go first. */
+        void enqueue(PLock req) {
+            if (holders.containsKey(req.tid))
+                waiting.addFirst(req);
+            else
+                waiting.addLast(req);
+        }
+
+        /** Grants waiting requests, in order, until one is incompatible. */
+        void grantWaiters() {
+            while (!waiting.isEmpty()) {
+                PLock req = waiting.getFirst();
+                if (!compatible(req.tid, req.mode))
+                    break;
+                waiting.removeFirst();
+                grant(req.tid, req.mode);
+                synchronized (req) {
+                    req.granted = true;
+                    req.notify();
+                }
+            }
+        }
+
+        /**
+         * Adds to out the transactions req waits for: the holders and the
+         * requests queued ahead of it that it conflicts with. Requests chosen
+         * as victims are about to leave and are skipped.
+         * @return false if req is no longer waiting
+         */
+        boolean blockers(PLock req, List<TransactionId> out) {
+            if (!waiting.contains(req))
+                return false;
+            for (Map.Entry<TransactionId, Mode> e : holders.entrySet())
+                if (!e.getKey().equals(req.tid) && !req.mode.compatible(e.getValue()))
+                    out.add(e.getKey());
+            for (PLock ahead : waiting) {
+                if (ahead == req)
+                    break;
+                if (!ahead.aborted && !ahead.tid.equals(req.tid) && !req.mode.compatible(ahead.mode))
+                    out.add(ahead.tid);
+            }
+            return true;
+        }
+
+        /** @return true if some transaction holds the whole table (S, SIX or X) */
+        boolean coversPages() {
+            for (Mode m : holders.values())
+                if (m == Mode.S || m == Mode.SIX || m == Mode.X)
+                    return true;
+            return false;
+        }
+
+        /** Drops the queue from the lock table if nobody holds or wants it. */
+        void removeIfIdle() {
+            if (holders.isEmpty() && waiting.isEmpty()) {
+                removed = true;
+                Shard s = shardFor(key);
+                synchronized (s) {
+                    if (s.queues.get(key) == this)
+                        s.queues.remove(key);
+                }
+            }
+        }
+    }
+
+    /** Sets which transaction on a deadlock cycle is aborted. */
+    public void setVictimPolicy(Victim v) {
+        m_victim = v;
+    }
+
+    /** Sets how many pages or tuples of one table a transaction locks before it locks the table instead. */
+    public void setEscalationThreshold(int pages) {
+        m_escalateAt = pages;
+    }
+
+    private LockQueue queueFor(Object key) {
+        Shard s = shardFor(key);
+        synchronized (s) {
+            LockQueue q = s.queues.get(key);
+            if (q == null) {
+                q = new LockQueue(key);
+                s.queues.put(key, q);
+            }
+            return q;
+        }
+    }
+
+    /** @return key's queue, or null if nobody holds or wants its lock */
+    private LockQueue queue(Object key) {
+        Shard s = shardFor(key);
+        synchronized (s) {
+            return s.queues.get(key);
+        }
+    }
+
+    private Held heldBy(TransactionId tid) {
+        Shard s = shardFor(tid);
+        synchronized (s) {
+            Held h = s.held.get(tid);
+            if (h == null) {
+                h = new Held();
+                s.held.put(tid, h);
+            }
+            return h;
+        }
+    }
+
+    /** @return the locks tid holds, or null if none */
+    private Held held(TransactionId tid) {
+        Shard s = shardFor(tid);
+        synchronized (s) {
+            return s.held.get(tid);
+        }
+    }
+
+    /** @return true if holding lock t on a table (or page) grants lock p on its pages (or tuples) */
+    private static boolean covers(Mode t, Mode p) {
+        return t == Mode.X || (p == Mode.S && (t == Mode.S || t == Mode.SIX));
+    }
+
+    /**
+     * Looks for cycles in the waits-for graph through tid, which has just
+     * blocked, and aborts a victim on each until none is left. Every
+     * transaction on a new cycle is blocked, and only tid gained an edge,
+     * so searching from tid finds every deadlock as it forms.
+     */
+    private void detectDeadlock(TransactionId tid) {
+        synchronized (m_detector) {
+            for (;;) {
+                List<TransactionId> cycle = new ArrayList<TransactionId>();
+                if (!findPath(tid, tid, new HashSet<TransactionId>(), cycle))
+                    return;
+                TransactionId victim = chooseVictim(cycle);
+                PLock req = m_blocked.get(victim);
+                if (req == null)
+                    continue;
+                synchronized (req) {
+                    // if it was granted meanwhile, the cycle is gone
+                    if (req.granted)
+                        continue;
+                    req.aborted = true;
+                    req.notify();
+                }
+                m_stats.deadlocks.increment();
+                if (victim.equals(tid))
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Depth-first search for a path from t to target along waits-for edges.
+     * @param path gets the transactions on the path, starting with t
+     */
+    private boolean findPath(TransactionId t, TransactionId target, Set<TransactionId> seen, List<TransactionId> path) {
+        PLock req = m_blocked.get(t);
+        if (req == null || req.aborted)
+            return false;
+        LockQueue q = queue(req.key);
+        if (q == null)
+            return false;
+        List<TransactionId> next = new ArrayList<TransactionId>();
+        synchronized (q) {
+            if (!q.blockers(req, next))
+                return false;
+        }
+        path.add(t);
+        for (TransactionId n : next) {
+            if (n.equals(target))
+                return true;
+            if (seen.add(n) && findPath(n, target, seen, path))
+                return true;
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        int victimLocks = 0;
+        for (TransactionId t : cycle) {
+            int locks = 0;
+            if (m_victim == Victim.FEWEST_LOCKS) {
+                Held h = held(t);
+                locks = h == null ? 0 : h.modes.size();
+            }
+            if (victim == null || locks < victimLocks || (locks == victimLocks && t.getId() > victim.getId())) {
+                victim = t;
+                victimLocks = locks;
+            }
+        }
+        return victim;
+    }
+
+    //returns when lock is obtained. If not obtainable, blocks until a release grants it.
+    public void acquireLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException{
+        lockPage(tid, pid, Mode.of(perm));
+    }
+
+    /**
+     * Takes an IX lock on a page, to insert or delete tuples of it that
+     * are then locked one by one with acquireRecordLock or gotRecordLock.
+     */
+    public void acquireUpdateLock(TransactionId tid, PageId pid) throws TransactionAbortedException {
+        lockPage(tid, pid, Mode.IX);
+    }
+
+    private void lockPage(TransactionId tid, PageId pid, Mode mode) throws TransactionAbortedException {
+        Held held = heldBy(tid);
+        TableLockId table = new TableLockId(pid.getTableId());
+        Mode tableMode = held.modes.get(table);
+        if (tableMode != null && covers(tableMode, mode))
+            return;
+        boolean had = held.modes.containsKey(pid);
+        acquire(tid, table, mode == Mode.S ? Mode.IS : Mode.IX);
+        acquire(tid, pid, mode);
+        if (!had)
+            counted(tid, held, pid.getTableId(), mode != Mode.S);
+    }
+
+    /**
+     * Counts a new page or tuple lock of tid on a table, and locks the
+     * whole table instead once there are too many.
+     */
+    private void counted(TransactionId tid, Held held, int tableId, boolean writes) throws TransactionAbortedException {
+        Mode m = escalation(held, tableId, writes);
+        if (m == null)
+            return;
+        acquire(tid, new TableLockId(tableId), m);
+        m_stats.escalations.increment();
+    }
+
+    /**
+     * Like counted, but only escalates if the table lock is free now;
+     * otherwise a later blocking lock escalates.
+     */
+    private void triedCounted(TransactionId tid, Held held, int tableId, boolean writes) {
+        Mode m = escalation(held, tableId, writes);
+        if (m != null && tryAcquire(tid, new TableLockId(tableId), m))
+            m_stats.escalations.increment();
+    }
+
+    /**
+     * Counts a new page or tuple lock of tid on a table.
+     * @return the table mode to escalate to, or null if none is needed
+     */
+    private Mode escalation(Held held, int tableId, boolean writes) {
+        if (held.count(tableId, 1) < m_escalateAt)
+            return null;
+        Mode tableMode = held.modes.get(new TableLockId(tableId));
+        writes |= tableMode == Mode.IX || tableMode == Mode.SIX;
+        if (tableMode == Mode.X || (!writes && tableMode == Mode.S))
+            return null;
+        return writes ? Mode.X : Mode.S;
+    }
+
+    /** @return true if tid's table or page locks already let it change the page's tuples */
+    private static boolean coversTuples(Held held, PageId pid) {
+        Mode m = held.modes.get(new TableLockId(pid.getTableId()));
+        if (m != null && covers(m, Mode.X))
+            return true;
+        m = held.modes.get(pid);
+        return m != null && covers(m, Mode.X);
+    }
+
+    /** @return false if tid holds an X lock on the page or its table, and needs no tuple locks */
+    public boolean needsRecordLocks(TransactionId tid, PageId pid) {
+        Held held = held(tid);
+        return held == null || !coversTuples(held, pid);
+    }
+
+    /**
+     * Takes an X lock on a tuple, blocking while another transaction holds
+     * it. The tuple's page must be locked with acquireUpdateLock first.
+     */
+    public void acquireRecordLock(TransactionId tid, RecordId rid) throws TransactionAbortedException {
+        Held held = heldBy(tid);
+        if (coversTuples(held, rid.getPageId()) || held.modes.containsKey(rid))
+            return;
+        acquire(tid, rid, Mode.X);
+        counted(tid, held, rid.getPageId().getTableId(), true);
+    }
+
+    /**
+     * Takes an X lock on a tuple if no other transaction holds it, e.g. to
+     * pick a free slot that no uncommitted delete has freed.
+     * @return false if the lock would have to wait
+     */
+    public boolean gotRecordLock(TransactionId tid, RecordId rid) {
+        Held held = heldBy(tid);
+        if (coversTuples(held, rid.getPageId()) || held.modes.containsKey(rid))
+            return true;
+        if (!tryAcquire(tid, rid, Mode.X))
+            return false;
+        triedCounted(tid, held, rid.getPageId().getTableId(), true);
+        return true;
+    }
+
+    /** Locks a whole table, so that its pages need no locks of their own. */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm) throws TransactionAbortedException {
+        acquire(tid, new TableLockId(tableId), Mode.of(perm));
+    }
+
+    private void acquire(TransactionId tid, Object key, Mode mode) throws TransactionAbortedException {
+        PLock req;
+        LockQueue q;
+        for (;;) {
+            q = queueFor(key);
+            synchronized (q) {
+                if (q.removed)
+                    continue;
+                Mode want = q.want(tid, mode);
+                if (q.tryGrant(tid, want))
+                    return;
+                req = new PLock(tid, key, want);
+                q.enqueue(req);
+                break;
+            }
+        }
+
+        long waitStart = System.nanoTime();
+        boolean interrupted = false;
+        m_blocked.put(tid, req);
+        detectDeadlock(tid);
+        synchronized (req) {
+            while (!req.granted && !req.aborted) {
+                try {
+                    req.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+            }
+        }
+        m_blocked.remove(tid, req);
+
+        synchronized (q) {
+            // a release may have granted the request since it was aborted
+            if (!req.granted) {
+                q.waiting.remove(req);
+                q.grantWaiters();
+                q.removeIfIdle();
+            }
+        }
+        m_stats.waits.record(System.nanoTime() - waitStart);
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (!req.granted)
+            throw new TransactionAbortedException();
+    }
+
+    //Returns true if lock obtained, or false if it would have to wait.
+    //On false, tid holds no more than it did before the call.
+    public boolean gotLock(TransactionId tid, PageId pid, Permissions perm){
+        TableLockId table = new TableLockId(pid.getTableId());
+        Mode mode = Mode.of(perm);
+        Held held = held(tid);
+        Mode tableMode = held == null ? null : held.modes.get(table);
+        if (tableMode != null && covers(tableMode, mode))
+            return true;
+        boolean had = held != null && held.modes.containsKey(pid);
+        if (!tryAcquire(tid, table, mode == Mode.X ? Mode.IX : Mode.IS))
+            return false;
+        held = heldBy(tid);
+        if (!tryAcquire(tid, pid, mode)) {
+            restore(tid, held, table, tableMode);
+            return false;
+        }
+        if (!had)
+            triedCounted(tid, held, pid.getTableId(), mode == Mode.X);
+        return true;
+    }
+
+    /**
+     * Puts tid's lock on key back to mode, or releases it if mode is null,
+     * granting any waiters that now fit.
+     */
+    private void restore(TransactionId tid, Held held, Object key, Mode mode) {
+        if (held.modes.get(key) == mode)
+            return;
+        LockQueue q = queue(key);
+        synchronized (q) {
+            if (mode == null) {
+                held.modes.remove(key);
+                q.holders.remove(tid);
+            } else {
+                held.modes.put(key, mode);
+                q.holders.put(tid, mode);
+            }
+            q.grantWaiters();
+            q.removeIfIdle();
+        }
+    }
+
+    private boolean tryAcquire(TransactionId tid, Object key, Mode mode) {
+        for (;;) {
+            LockQueue q = queueFor(key);
+            synchronized (q) {
+                if (q.removed)
+                    continue;
+                boolean got = q.tryGrant(tid, q.want(tid, mode));
+                q.removeIfIdle();
+                return got;
+            }
+        }
+    }
+
+    //Actually releases the lock associated with Transaction tid AND on page w/ PageId pid.
+    //pid == null means to unlock all of tid's locks (on all pages and tables).
+    public void releaseLock(TransactionId tid, PageId pid){
+        Held held = held(tid);
+        if (held == null)
+            return;
+        Iterator<Object> it = held.modes.keySet().iterator();
+
+        while (it.hasNext()){
+            Object key = it.next();
+            if (pid == null || key.equals(pid)){
+                it.remove();
+                if (pid != null)
+                    held.count(pid.getTableId(), -1);
+                LockQueue q = queue(key);
+                if (q == null)
+                    continue;
+                synchronized (q) {
+                    q.holders.remove(tid);
+                    q.grantWaiters();
+                    q.removeIfIdle();
+                }
+            }
+        }
+        if (pid == null) {
+            Shard s = shardFor(tid);
+            synchronized (s) {
+                s.held.remove(tid);
+            }
+        }
+    }
+
+    public boolean holdsLock(TransactionId tid, PageId pid){
+        Held held = held(tid);
+        if (held == null)
+            return false;
+        Mode tableMode = held.modes.get(new TableLockId(pid.getTableId()));
+        return held.modes.containsKey(pid) || (tableMode != null && covers(tableMode, Mode.S));
+    }
+
+    //true if any transaction holds a lock on pid, or on all of its table
+    public boolean isLocked(PageId pid){
+        LockQueue q = queue(pid);
+        if (q != null) {
+            synchronized (q) {
+                if (!q.holders.isEmpty())
+                    return true;
+            }
+        }
+        q = queue(new TableLockId(pid.getTableId()));
+        if (q == null)
+            return false;
+        synchronized (q) {
+            return q.coversPages();
+        }
+    }
+
+    /** @return the mode in which tid holds tableId's table lock, or null */
+    Mode tableMode(TransactionId tid, int tableId) {
+        Held held = held(tid);
+        return held == null ? null : held.modes.get(new TableLockId(tableId));
+    }
+
+    /** @return the number of requests waiting for a page's or table's lock */
+    int waiters(Object key) {
+        LockQueue q = queue(key);
+        if (q == null)
+            return 0;
+        synchronized (q) {
+            return q.waiting.size();
+        }
+    }
+
+    //release all locks associated with Transaction tid
+    public void releaseByTrans(TransactionId tid){
+        releaseLock(tid, null);
+    }
+}
@@ -0,0 +1,42 @@
+package simpledb;
+
+/**
+ * How long transactions waited for locks, how many deadlocks were broken
+ * and how many times page locks were escalated to a table lock.
+ */
+public class LockStats implements LockStatsMBean {
+
+    final LatencyHistogram waits = new LatencyHistogram();
+    final Counter deadlocks = new Counter();
+    final Counter escalations = new Counter();
+
+    public long getWaits() {
+        return waits.count();
+    }
+
+    public long getMeanWaitMicros() {
+        return waits.meanNanos() / 1000;
+    }
+
+    public long getP99WaitMicros() {
+        return waits.percentileNanos(0.99) / 1000;
+    }
+
+    public long getDeadlocks() {
+        return deadlocks.sum();
+    }
+
+    public long getEscalations() {
+        return escalations.sum();
+    }
+
+    public void reset() {
+        waits.reset();
+        deadlocks.reset();
+        escalations.reset();
+    }
+
+    public String toString() {
+        return "waits " + waits + ", deadlocks " + getDeadlocks() + ", escalations " + getEscalations();
+    }
+}
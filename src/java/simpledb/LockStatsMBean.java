@@ -0,0 +1,15 @@
+package simpledb;
+
+/**
+ * JMX view of the time transactions spend waiting for locks. Only
+ * requests that had to wait are counted. Deadlocks counts the victims
+ * aborted to break waits-for cycles.
+ */
+public interface LockStatsMBean {
+    long getWaits();
+    long getMeanWaitMicros();
+    long getP99WaitMicros();
+    long getDeadlocks();
+    long getEscalations();
+    void reset();
+}
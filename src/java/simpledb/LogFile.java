@@ -4,6 +4,8 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -88,6 +90,10 @@ public class LogFile {
     static int LONG_SIZE = 8;
 
     long currentOffset = -1;
+    /** Log records that end at or before this offset are on disk. */
+    volatile long forcedOffset = 0;
+    /** Held while syncing the log; taken after this, never before. */
+    private final Object forceLock = new Object();
     int pageSize;
     int totalRecords = 0; // for PatchTest
 
@@ -135,6 +141,11 @@ public class LogFile {
         }
     }
 
+    /** @return true if tid has begun, and not committed or aborted. */
+    public synchronized boolean isLive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     public int getTotalRecords() {
         return totalRecords;
     }
@@ -173,17 +184,23 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long end;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            raf.writeInt(COMMIT_RECORD);
+            raf.writeLong(tid.getId());
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            tidToFirstLogRecord.remove(tid.getId());
+            end = currentOffset;
+        }
+        // outside the monitor, so that commits arriving meanwhile can
+        // append and share the next sync
+        forceThrough(end);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -191,13 +208,20 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the log offset just past the record; the page must not be
+        written to disk until the log is forced through it
 
         @see simpledb.Page#getBeforeImage
+        @see #forceThrough
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
         Debug.log("WRITE, offset = " + raf.getFilePointer());
+        // transactions run straight against the BufferPool, without a
+        // Transaction, begin with their first update
+        if (tidToFirstLogRecord.get(tid.getId()) == null)
+            logXactionBegin(tid);
         preAppend();
         /* update record conists of
 
@@ -216,6 +240,7 @@ public class LogFile {
         currentOffset = raf.getFilePointer();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return currentOffset;
     }
 
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
@@ -265,17 +290,26 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may declare several constructors; recovery needs the
+            // Page(PageId, byte[]) one
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("no (PageId, byte[]) constructor for " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -324,10 +358,11 @@ public class LogFile {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
                 long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
                 force();
+                // may log (and so begin) transactions
                 Database.getBufferPool().flushAllPages();
+                Set<Long> keys = tidToFirstLogRecord.keySet();
+                Iterator<Long> els = keys.iterator();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -450,6 +485,11 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        // offsets changed; everything in the new file is on disk
+        raf.getChannel().force(true);
+        synchronized (forceLock) {
+            forcedOffset = currentOffset;
+        }
         //print();
     }
 
@@ -467,10 +507,54 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                // unless the BufferPool wrote some of tid's pages out, its
+                // changes are only in memory, and the pool reverts them
+                if (!Database.getBufferPool().forgetStolen(tid))
+                    return;
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not live");
+
+                ArrayList<Page> before = new ArrayList<Page>();
+                raf.seek(first);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long record_tid = raf.readLong();
+                    if (type == UPDATE_RECORD && record_tid == tid.getId()) {
+                        before.add(readPageData(raf));
+                        readPageData(raf);
+                        raf.readLong();
+                    } else {
+                        skipRecordBody(type);
+                    }
+                }
+                undo(before);
+                raf.seek(currentOffset);
             }
         }
     }
 
+    /** Install before images, latest first, on disk and in place of any
+        cached copies. */
+    private void undo(List<Page> before) throws IOException {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = before.size() - 1; i >= 0; i--) {
+            Page p = before.get(i);
+            PageId pid = p.getId();
+            bp.writeFromLog(p);
+            if (bp.frameFor(pid) != null)
+                bp.discardPage(pid);
+            freeSpaceChanged(p);
+        }
+    }
+
+    /** Tell a heap file's free-space map that the log rewrote a page. */
+    private void freeSpaceChanged(Page p) {
+        DbFile f = Database.getCatalog().getDbFile(p.getId().getTableId());
+        if (f instanceof HeapFile && p instanceof HeapPage)
+            ((HeapFile) f).updateFreeSpace((HeapPage) p);
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -478,6 +562,8 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            Database.getBufferPool().saveHotPages();
+            Database.getCatalog().saveFiles();
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -488,23 +574,133 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Committed updates are redone by writing their after images, in log
+        order. They may be missing from disk when the BufferPool does not
+        force pages at commit. Then the updates of transactions that never
+        committed or aborted are undone, latest first, from their before
+        images; the BufferPool may have stolen their pages.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                if (raf.length() < LONG_SIZE)
+                    return;
+
+                HashSet<Long> committed = new HashSet<Long>();
+                HashSet<Long> losers = new HashSet<Long>();
+                raf.seek(LONG_SIZE);
+                while (true) {
+                    try {
+                        int type = raf.readInt();
+                        long tid = raf.readLong();
+                        if (type == BEGIN_RECORD)
+                            losers.add(tid);
+                        else if (type == COMMIT_RECORD || type == ABORT_RECORD)
+                            losers.remove(tid);
+                        if (type == COMMIT_RECORD)
+                            committed.add(tid);
+                        skipRecordBody(type);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                }
+
+                ArrayList<Page> undone = new ArrayList<Page>();
+                raf.seek(LONG_SIZE);
+                while (true) {
+                    try {
+                        int type = raf.readInt();
+                        long tid = raf.readLong();
+                        if (type == UPDATE_RECORD && losers.contains(tid)) {
+                            Page before = readPageData(raf);
+                            readPageData(raf);
+                            raf.readLong();
+                            undone.add(before);
+                        } else if (type == UPDATE_RECORD && committed.contains(tid)) {
+                            readPageData(raf); // before image
+                            Page after = readPageData(raf);
+                            raf.readLong(); // a torn last record ends here
+                            Database.getBufferPool().writeFromLog(after);
+                            freeSpaceChanged(after);
+                        } else {
+                            skipRecordBody(type);
+                        }
+                    } catch (EOFException e) {
+                        break;
+                    }
+                }
+                // pages of unfinished transactions may have been stolen
+                undo(undone);
+                // cached copies of redone pages are out of date
+                Database.getBufferPool().discardAllPages();
+
+                raf.seek(raf.length());
+                currentOffset = raf.getFilePointer();
+                // transaction ids start over after a restart; drop the
+                // records of the old ones
+                logCheckpoint();
             }
          }
     }
 
+    /** Skip the rest of a record whose type and tid were just read. */
+    private void skipRecordBody(int type) throws IOException {
+        switch (type) {
+        case UPDATE_RECORD:
+            readPageData(raf);
+            readPageData(raf);
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = raf.readInt();
+            raf.seek(raf.getFilePointer() + 2L * LONG_SIZE * numXactions);
+            break;
+        }
+        raf.readLong();
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    public void force() throws IOException {
+        long end;
+        synchronized (this) {
+            end = currentOffset;
+        }
+        forceThrough(end);
+    }
+
+    /** Force the log to disk, unless everything up to offset already is.
+        One sync covers every record appended before it started, so
+        callers that queue up behind a sync in progress usually find
+        their records forced by the next one and share it.
+        @param offset a value returned by logWrite
+    */
+    public void forceThrough(long offset) throws IOException {
+        if (offset <= forcedOffset)
+            return;
+        long end;
+        FileChannel ch;
+        synchronized (this) {
+            end = currentOffset;
+            ch = raf.getChannel();
+        }
+        synchronized (forceLock) {
+            if (offset <= forcedOffset)
+                return;
+            try {
+                ch.force(true);
+            } catch (ClosedChannelException e) {
+                // logTruncate replaced the file, and synced the new one
+                return;
+            }
+            if (end > forcedOffset)
+                forcedOffset = end;
+        }
     }
 
 }
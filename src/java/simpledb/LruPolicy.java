@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Least recently used replacement. A hit records the time in the frame;
+ * finding a victim scans the stripe for the oldest evictable frame.
+ */
+class LruPolicy implements ReplacementPolicy {
+
+    private final HashSet<BufferPool.Frame> frames = new HashSet<BufferPool.Frame>();
+
+    public void admit(BufferPool.Frame f) {
+        f.lastUsed = System.nanoTime();
+        frames.add(f);
+    }
+
+    public void touch(BufferPool.Frame f) {
+        f.lastUsed = System.nanoTime();
+    }
+
+    public void remove(BufferPool.Frame f) {
+        frames.remove(f);
+    }
+
+    public BufferPool.Frame victim() {
+        BufferPool.Frame victim = null;
+        for (BufferPool.Frame f : frames) {
+            if (f.isEvictable() && (victim == null || f.lastUsed < victim.lastUsed))
+                victim = f;
+        }
+        return victim;
+    }
+
+    public void order(List<BufferPool.Frame> out) {
+        List<BufferPool.Frame> byUse = new ArrayList<BufferPool.Frame>(frames);
+        Collections.sort(byUse, new Comparator<BufferPool.Frame>() {
+            public int compare(BufferPool.Frame a, BufferPool.Frame b) {
+                // most recently used first
+                return a.lastUsed > b.lastUsed ? -1 : a.lastUsed < b.lastUsed ? 1 : 0;
+            }
+        });
+        out.addAll(byUse);
+    }
+}
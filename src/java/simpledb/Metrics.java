@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the statistics of the Database's buffer pool and lock manager
+ * as JMX MBeans, and formats them for the console's stats command.
+ * <p>
+ * MBeans are named simpledb:type=BufferPool,pool=&lt;name&gt; for each pool,
+ * simpledb:type=Table,table=&lt;name&gt; for each table read or written, and
+ * simpledb:type=Locks. Publishing a new pool's statistics replaces those
+ * of a previous pool of the same name.
+ */
+class Metrics {
+
+    private static final String DOMAIN = "simpledb";
+
+    static void publish(BufferPool.Pool pool) {
+        register("type=BufferPool,pool=" + ObjectName.quote(pool.name), pool.stats);
+    }
+
+    static void publish(int tableId, PageStats stats) {
+        register("type=Table,table=" + ObjectName.quote(tableName(tableId)), stats);
+    }
+
+    static void publishLocks(LockStats stats) {
+        register("type=Locks", stats);
+    }
+
+    private static void register(String name, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(DOMAIN + ":" + name);
+            if (server.isRegistered(on))
+                server.unregisterMBean(on);
+            server.registerMBean(mbean, on);
+        } catch (JMException e) {
+            // statistics are best effort; the database works without them
+            e.printStackTrace();
+        }
+    }
+
+    private static String tableName(int tableId) {
+        try {
+            return Database.getCatalog().getTableName(tableId);
+        } catch (RuntimeException e) {
+            // not in the catalog
+            return Integer.toString(tableId);
+        }
+    }
+
+    /** @return the statistics of bp's pools and tables, and of locking */
+    static String report(BufferPool bp) {
+        StringBuilder sb = new StringBuilder();
+        for (BufferPool.Pool p : bp.m_pools.values())
+            sb.append("pool ").append(p.name).append(": ").append(p.stats).append('\n');
+        for (Map.Entry<Integer, PageStats> e : bp.m_tableStats.entrySet())
+            sb.append("table ").append(tableName(e.getKey())).append(": ").append(e.getValue()).append('\n');
+        sb.append("locks: ").append(bp.m_locks.m_stats).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+/**
+ * Page I/O statistics of a buffer pool or of one table: hits and misses,
+ * evictions, pages written, bytes moved and read and write latencies. The
+ * BufferPool updates them as it works; updates take no locks.
+ */
+public class PageStats implements PageStatsMBean {
+
+    final Counter hits = new Counter();
+    final Counter misses = new Counter();
+    final Counter evictions = new Counter();
+    final Counter flushes = new Counter();
+    final Counter bytesRead = new Counter();
+    final Counter bytesWritten = new Counter();
+    final LatencyHistogram reads = new LatencyHistogram();
+    final LatencyHistogram writes = new LatencyHistogram();
+
+    /** A page of the given size was read in nanos ns. */
+    void read(int bytes, long nanos) {
+        bytesRead.add(bytes);
+        reads.record(nanos);
+    }
+
+    /** Pages totalling the given size were written with one write. */
+    void wrote(int pages, long bytes, long nanos) {
+        flushes.add(pages);
+        bytesWritten.add(bytes);
+        writes.record(nanos);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long all = h + misses.sum();
+        return all == 0 ? 0 : (double) h / all;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getReads() {
+        return reads.count();
+    }
+
+    public long getMeanReadMicros() {
+        return reads.meanNanos() / 1000;
+    }
+
+    public long getP99ReadMicros() {
+        return reads.percentileNanos(0.99) / 1000;
+    }
+
+    public long getWrites() {
+        return writes.count();
+    }
+
+    public long getMeanWriteMicros() {
+        return writes.meanNanos() / 1000;
+    }
+
+    public long getP99WriteMicros() {
+        return writes.percentileNanos(0.99) / 1000;
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        flushes.reset();
+        bytesRead.reset();
+        bytesWritten.reset();
+        reads.reset();
+        writes.reset();
+    }
+
+    /** @return a one-line summary, for the console */
+    public String toString() {
+        return String.format("hits %d, misses %d (%.1f%% hits), evictions %d, pages written %d; "
+                + "read %d KB, %s; wrote %d KB, %s",
+                getHits(), getMisses(), 100 * getHitRatio(), getEvictions(), getFlushes(),
+                getBytesRead() / 1024, reads, getBytesWritten() / 1024, writes);
+    }
+}
@@ -0,0 +1,27 @@
+package simpledb;
+
+/**
+ * JMX view of the page I/O statistics of a buffer pool or a table. Times
+ * are in microseconds; percentiles are accurate to within a factor of two.
+ *
+ * @see PageStats
+ */
+public interface PageStatsMBean {
+    long getHits();
+    long getMisses();
+    /** @return hits as a fraction of all requests, or 0 if there were none */
+    double getHitRatio();
+    long getEvictions();
+    /** @return pages written */
+    long getFlushes();
+    long getBytesRead();
+    long getBytesWritten();
+    long getReads();
+    long getMeanReadMicros();
+    long getP99ReadMicros();
+    long getWrites();
+    long getMeanWriteMicros();
+    long getP99WriteMicros();
+    /** Set everything back to zero. */
+    void reset();
+}
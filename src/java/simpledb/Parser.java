@@ -584,11 +584,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "stats" };
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -598,9 +598,18 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile] [-warm hotPageFile]";
+
+    /** How often the buffer pool's page list is saved with -warm. */
+    static final long HOT_PAGE_SAVE_MS = 60 * 1000;
 
     protected void shutdown() {
+        try {
+            Database.getBufferPool().saveHotPages();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Database.getCatalog().saveFiles();
         System.out.println("Bye");
     }
 
@@ -627,6 +636,17 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-warm")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected file name after -warm\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    BufferPool bp = Database.getBufferPool();
+                    bp.setHotPageFile(new File(argv[i]), HOT_PAGE_SAVE_MS);
+                    int n = bp.loadHotPages();
+                    if (n > 0)
+                        System.out.println("Warming buffer pool with " + n + " pages.");
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
@@ -677,6 +697,12 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    if (cmd.equalsIgnoreCase("stats;")) {
+                        System.out.print(Database.getBufferPool().statsReport());
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
@@ -0,0 +1,36 @@
+package simpledb;
+
+/**
+ * Statistics of one buffer pool: its page I/O, and how full and how dirty
+ * it is.
+ */
+public class PoolStats extends PageStats implements PoolStatsMBean {
+
+    private final BufferPool.Pool pool;
+
+    PoolStats(BufferPool.Pool pool) {
+        this.pool = pool;
+    }
+
+    public int getCapacity() {
+        return pool.limit;
+    }
+
+    public int getResidentPages() {
+        return pool.size.get();
+    }
+
+    public int getDirtyPages() {
+        int n = 0;
+        for (BufferPool.Stripe s : pool.stripes)
+            for (BufferPool.Frame f : s.frames.values())
+                if (f.page.isDirty() != null || f.unflushed)
+                    n++;
+        return n;
+    }
+
+    public String toString() {
+        return getResidentPages() + "/" + getCapacity() + " pages, " + getDirtyPages() + " dirty; "
+                + super.toString();
+    }
+}
@@ -0,0 +1,13 @@
+package simpledb;
+
+/**
+ * JMX view of one buffer pool: its page I/O statistics and how full it is.
+ *
+ * @see BufferPool#addPool
+ */
+public interface PoolStatsMBean extends PageStatsMBean {
+    int getCapacity();
+    int getResidentPages();
+    /** @return pages with changes not written to disk yet */
+    int getDirtyPages();
+}
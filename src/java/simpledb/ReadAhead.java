@@ -0,0 +1,82 @@
+package simpledb;
+
+/**
+ * ReadAhead drives asynchronous prefetching for one sequential scan over a
+ * HeapFile. The scan reports each page number it is about to request; once
+ * two consecutive requests are for adjacent pages the access is treated as
+ * sequential and the next <i>depth</i> pages are handed to
+ * {@link BufferPool#prefetchPage}.
+ * <p>
+ * The depth adapts to how useful prefetching turns out to be: it doubles
+ * (up to MAX_DEPTH) each time a page we prefetched is found resident, or
+ * still being read, when the scan gets to it, and halves (down to
+ * MIN_DEPTH) each time a page we prefetched has already been evicted or
+ * was never loaded. A page still being read means the scan has caught up
+ * with read-ahead, so it should run further ahead.
+ * <p>
+ * A scan that reads through a {@link ScanRing} prefetches into the ring
+ * rather than the pool.
+ */
+class ReadAhead {
+
+    static final int MIN_DEPTH = 2;
+    static final int MAX_DEPTH = 32;
+
+    private final int tableId;
+    private final ScanRing ring;
+    private int lastPage = -1;
+    private int issuedFrom = 0;
+    private int issuedThrough = -1;
+    private int depth = MIN_DEPTH;
+
+    ReadAhead(int tableId) {
+        this(tableId, null);
+    }
+
+    ReadAhead(int tableId, ScanRing ring) {
+        this.tableId = tableId;
+        this.ring = ring;
+    }
+
+    /** @return the current prefetch depth, in pages. */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Record that the scan is about to request page pgno, and issue
+     * prefetches for the pages after it.
+     *
+     * @param pgno the page the scan is about to request
+     * @param numPages the number of pages currently in the file
+     */
+    void access(int pgno, int numPages) {
+        BufferPool bp = Database.getBufferPool();
+        boolean sequential = (pgno == lastPage + 1);
+        lastPage = pgno;
+
+        if (!sequential) {
+            // random access (or a rewind); forget what we issued so far
+            depth = MIN_DEPTH;
+            issuedFrom = pgno + 1;
+            issuedThrough = pgno;
+            return;
+        }
+
+        if (pgno >= issuedFrom && pgno <= issuedThrough) {
+            HeapPageId pid = new HeapPageId(tableId, pgno);
+            // check in-flight first: a read that finishes in between is
+            // then claimed as a hit
+            if (bp.prefetchInFlight(pid, ring) || bp.claimPrefetched(pid, ring))
+                depth = Math.min(MAX_DEPTH, depth * 2);
+            else
+                depth = Math.max(MIN_DEPTH, depth / 2);
+        }
+
+        int target = Math.min(numPages - 1, pgno + depth);
+        for (int p = Math.max(issuedThrough + 1, pgno + 1); p <= target; p++)
+            bp.prefetchPage(new HeapPageId(tableId, p), ring);
+        if (target > issuedThrough)
+            issuedThrough = target;
+    }
+}
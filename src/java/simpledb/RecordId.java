@@ -54,7 +54,10 @@ public class RecordId implements Serializable {
     public boolean equals(Object o) {
         // some code goes here
         //throw new UnsupportedOperationException("implement this");
-	return this.hashCode() == o.hashCode();
+	if (!(o instanceof RecordId))
+		return false;
+	RecordId r = (RecordId) o;
+	return tupleno == r.tupleno && pid.equals(r.pid);
     }
 
     /**
@@ -66,7 +69,8 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // some code goes here
-	return Integer.valueOf(String.valueOf(pid.hashCode()) + String.valueOf(tupleno));        
+	// tuple locks hash them, so this must not overflow for large page ids
+	return 31 * pid.hashCode() + tupleno;
 	//throw new UnsupportedOperationException("implement this");
 
     }
@@ -0,0 +1,39 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * ReplacementPolicy decides which page a BufferPool stripe evicts when the
+ * pool is full. Each stripe has its own instance.
+ * <p>
+ * admit, remove, victim and order are called with the stripe's monitor held.
+ * touch is called on every buffer pool hit without any lock, so it must be
+ * cheap and safe to call concurrently with the others.
+ *
+ * @see BufferPool#BufferPool(int, String)
+ */
+interface ReplacementPolicy {
+
+    /** A page was loaded into frame f. */
+    void admit(BufferPool.Frame f);
+
+    /** The page in frame f was used again. */
+    void touch(BufferPool.Frame f);
+
+    /** Frame f was evicted or discarded. */
+    void remove(BufferPool.Frame f);
+
+    /**
+     * Choose the frame to evict. Only frames for which
+     * {@link BufferPool.Frame#isEvictable} is true may be chosen.
+     *
+     * @return the victim, or null if no frame can be evicted
+     */
+    BufferPool.Frame victim();
+
+    /**
+     * Append every frame to out, those the policy would keep longest
+     * first.
+     */
+    void order(List<BufferPool.Frame> out);
+}
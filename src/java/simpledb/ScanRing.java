@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * ScanRing is a small private set of frames that serves one large
+ * sequential scan, in the spirit of PostgreSQL's ring buffer strategies.
+ * Pages the scan reads that are not already in the shared BufferPool are
+ * kept here instead, and the oldest is dropped once the ring is full, so
+ * a scan of a table larger than the pool does not push out the pages
+ * other transactions are using.
+ * <p>
+ * Ring pages are only ever read: the scan holds a shared lock on each page
+ * it reads, so no other transaction can change one underneath it, and a
+ * transaction that wants to write a page goes through the shared pool.
+ * Read-ahead into the ring happens before the scan has its lock, so a
+ * prefetched page is thrown away if the pool wrote any page since it was
+ * read.
+ *
+ * @see BufferPool#scanRing
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)
+ */
+class ScanRing {
+
+    /** Frames per ring; enough for the deepest read-ahead window. */
+    static final int RING_PAGES = 2 * ReadAhead.MAX_DEPTH;
+
+    private final BufferPool bp;
+    private final LinkedHashMap<PageId, Page> pages = new LinkedHashMap<PageId, Page>() {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<PageId, Page> eldest) {
+            if (size() <= RING_PAGES)
+                return false;
+            unclaimed.remove(eldest.getKey());
+            readAt.remove(eldest.getKey());
+            return true;
+        }
+    };
+    private final HashMap<PageId, CountDownLatch> inFlight = new HashMap<PageId, CountDownLatch>();
+    /** Prefetched pages the scan has not reached yet. */
+    private final HashSet<PageId> unclaimed = new HashSet<PageId>();
+    /** BufferPool.m_writes when each prefetched page was read, until the
+     *  scan gets to it. */
+    private final HashMap<PageId, Long> readAt = new HashMap<PageId, Long>();
+
+    ScanRing(BufferPool bp) {
+        this.bp = bp;
+    }
+
+    /**
+     * Called with the scan's lock on pid held.
+     * @return the ring's copy of pid, waiting for a read-ahead of it that is
+     *   in progress, or null if the ring does not have it
+     */
+    Page get(PageId pid) {
+        CountDownLatch loading;
+        synchronized (this) {
+            if (pages.containsKey(pid))
+                return validate(pid);
+            loading = inFlight.get(pid);
+        }
+        if (loading == null)
+            return null;
+        try {
+            loading.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            return validate(pid);
+        }
+    }
+
+    /** Check a prefetched copy once, now that the scan holds its lock. */
+    private Page validate(PageId pid) {
+        Page p = current(pid);
+        readAt.remove(pid);
+        return p;
+    }
+
+    /** @return the ring's copy of pid, unless it is a stale prefetch. */
+    private Page current(PageId pid) {
+        Long at = readAt.get(pid);
+        if (at != null && at.longValue() != bp.m_writes.get()) {
+            pages.remove(pid);
+            unclaimed.remove(pid);
+            readAt.remove(pid);
+            return null;
+        }
+        return pages.get(pid);
+    }
+
+    /** Add a page to the ring, dropping the oldest one if it is full. */
+    synchronized void put(PageId pid, Page p) {
+        readAt.remove(pid);
+        pages.put(pid, p);
+    }
+
+    /**
+     * Start loading pid into the ring on the given executor, unless the
+     * ring has it or is already loading it.
+     * @return true if a read was issued
+     */
+    boolean prefetch(final PageId pid, Executor io) {
+        final CountDownLatch done = new CountDownLatch(1);
+        synchronized (this) {
+            if (pages.containsKey(pid) || inFlight.containsKey(pid))
+                return false;
+            inFlight.put(pid, done);
+        }
+        io.execute(new Runnable() {
+            public void run() {
+                try {
+                    // read the counter first: a write that finishes after
+                    // this point makes the copy we read stale
+                    long at = bp.m_writes.get();
+                    Page pg = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+                    if (pg != null) {
+                        synchronized (ScanRing.this) {
+                            pages.put(pid, pg);
+                            unclaimed.add(pid);
+                            readAt.put(pid, at);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // read-ahead is best effort
+                } finally {
+                    synchronized (ScanRing.this) {
+                        inFlight.remove(pid);
+                    }
+                    done.countDown();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Called by the scan when it reaches a page it prefetched into the ring.
+     * @return true if the page is in the ring
+     */
+    synchronized boolean claimPrefetched(PageId pid) {
+        return unclaimed.remove(pid) && current(pid) != null;
+    }
+
+    /** @return true if a read-ahead of pid into the ring is in progress */
+    synchronized boolean loading(PageId pid) {
+        return inFlight.containsKey(pid);
+    }
+
+    /** @return the number of pages in the ring. */
+    synchronized int size() {
+        return pages.size();
+    }
+}
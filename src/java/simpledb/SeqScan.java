@@ -18,6 +18,7 @@ public class SeqScan implements DbIterator {
 	
 	int m_open = 0;
 	DbFileIterator m_titr = null;
+	Predicate m_pushedPred = null;
 	
     private static final long serialVersionUID = 1L;
 
@@ -84,11 +85,28 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Push a selection predicate down into this scan. Heap files evaluate it
+     * against raw page data, so tuples that fail it are never built. The
+     * scan may still return tuples that fail the predicate (for tables that
+     * are not heap files), so callers must keep applying it themselves.
+     *
+     * @param p the predicate, in terms of this scan's fields, or null
+     */
+    public void setPushedPredicate(Predicate p) {
+    	m_pushedPred = p;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
 //    	String tblName = Database.getCatalog().getTableName(m_tblId);
     	DbFile file = Database.getCatalog().getDbFile(m_tblId);
-    	m_titr = file.iterator(m_transId);
+    	// one shared table lock instead of one lock per page
+    	Database.getBufferPool().lockTable(m_transId, m_tblId, Permissions.READ_ONLY);
+    	if (file instanceof HeapFile)
+    		m_titr = ((HeapFile) file).iterator(m_transId, m_pushedPred);
+    	else
+    		m_titr = file.iterator(m_transId);
     	m_titr.open();
     	m_open = 1;
     }
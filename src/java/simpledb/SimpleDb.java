@@ -8,7 +8,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>7){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -17,6 +17,8 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            boolean slotted=false;
+            boolean parallel=false;
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -40,12 +42,32 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
+                // layout and load options: "slotted", "parallel"
+                for (int i=5;i<args.length;i++) {
+                    if (args[i].toLowerCase().equals("slotted"))
+                        slotted=true;
+                    else if (args[i].toLowerCase().equals("parallel"))
+                        parallel=true;
+                    else {
+                        System.err.println("Unknown convert option " + args[i]);
+                        return;
+                    }
+                }
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+            if (parallel) {
+                BulkLoader loader = new BulkLoader(ts, BufferPool.getPageSize());
+                loader.setFieldSeparator(fieldSeparator);
+                loader.setSlotted(slotted);
+                loader.load(sourceTxtFile, targetDatFile);
+            } else if (slotted)
+                HeapFileEncoder.convertSlotted(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -0,0 +1,300 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is a HeapPage whose tuples are stored in a variable-length
+ * format, so that short strings do not take up Type.STRING_LEN bytes of
+ * padding each. It is used by HeapFiles created with the slotted layout
+ * (see {@link HeapFile#setSlotted}).
+ * <p>
+ * Page format: a two byte count of slot directory entries, a two byte
+ * offset of the start of the record area, and then the slot directory, one
+ * entry per slot holding the two byte offset and two byte length of that
+ * slot's record; a length of zero marks an empty slot. Records are packed
+ * at the end of the page, growing towards the directory. Each record is its
+ * fields one after another in the encoding of {@link Type#serializeCompact}.
+ * <p>
+ * Slot numbers never change while a tuple lives on the page, so RecordIds
+ * stay valid; the record area is compacted whenever the page is written.
+ * An all-zero page is a valid empty page, as for HeapPage. Offsets are two
+ * bytes wide, so pages may be at most 64 KB.
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    /** Bytes of fixed header before the slot directory. */
+    static final int HEADER_SIZE = 4;
+    /** Bytes per slot directory entry. */
+    static final int SLOT_SIZE = 4;
+    /** Largest supported page size. */
+    static final int MAX_PAGE_SIZE = 1 << 16;
+
+    /** Offset of each slot's record within data, or -1 if the tuple was
+     *  inserted since the page was read and exists only in tuples[]. */
+    int offsets[];
+    /** Length of each slot's record; 0 for an empty slot. */
+    int lengths[];
+    /** Total length of the records on the page. */
+    int usedBytes;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * The format is described in the class comment.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage from a buffer holding the page's bytes,
+     * starting at the buffer's current position.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data, false);
+        if (pageSize > MAX_PAGE_SIZE)
+            throw new IOException("slotted pages are limited to " + MAX_PAGE_SIZE + " bytes");
+        if (this.data.remaining() < pageSize)
+            throw new IOException("page data too short");
+
+        ByteBuffer buf = this.data.duplicate();
+        numSlots = buf.getShort() & 0xffff;
+        buf.getShort(); // start of record area; recomputed on write
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > pageSize)
+            throw new IOException("corrupt slot directory");
+
+        int cap = Math.max(numSlots, 8);
+        offsets = new int[cap];
+        lengths = new int[cap];
+        tuples = new Tuple[cap];
+        for (int i = 0; i < numSlots; i++) {
+            offsets[i] = buf.getShort() & 0xffff;
+            lengths[i] = buf.getShort() & 0xffff;
+            if (offsets[i] + lengths[i] > pageSize)
+                throw new IOException("corrupt slot directory");
+            usedBytes += lengths[i];
+        }
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HeapPage getBeforeImage() {
+        try {
+            return new SlottedHeapPage(pid, oldData != null ? oldData : getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public Tuple getTuple(int slotId) throws NoSuchElementException {
+        if (!isSlotUsed(slotId))
+            return null;
+        if (tuples[slotId] != null)
+            return tuples[slotId];
+
+        ByteBuffer src = data;
+        ByteBuffer buf = src.duplicate();
+        buf.position(offsets[slotId]);
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j=0; j<td.numFields(); j++)
+                t.setField(j, td.getFieldType(j).parseCompact(buf));
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        if (src != data)
+            return getTuple(slotId); // detached meanwhile; read the copy
+
+        tuples[slotId] = t;
+        return t;
+    }
+
+    public Field getField(int slotId, int fieldNo) throws NoSuchElementException {
+        if (!isSlotUsed(slotId))
+            return null;
+        if (tuples[slotId] != null)
+            return tuples[slotId].getField(fieldNo);
+
+        ByteBuffer src = data;
+        ByteBuffer buf = src.duplicate();
+        buf.position(offsets[slotId]);
+        try {
+            for (int j=0; j<fieldNo; j++)
+                td.getFieldType(j).skipCompact(buf);
+            Field f = td.getFieldType(fieldNo).parseCompact(buf);
+            return src == data ? f : getField(slotId, fieldNo);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with
+     * the record area compacted.
+     *
+     * @see HeapPage#getPageData
+     */
+    public byte[] getPageData() {
+        byte[][] records = new byte[numSlots][];
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            if (tuples[i] != null) {
+                records[i] = encode(tuples[i]);
+            } else {
+                // never decoded: its bytes are unchanged
+                records[i] = new byte[lengths[i]];
+                ByteBuffer src;
+                do {
+                    src = data;
+                    ByteBuffer buf = src.duplicate();
+                    buf.position(offsets[i]);
+                    buf.get(records[i]);
+                } while (src != data);
+            }
+        }
+        return buildPageData(records, pageSize);
+    }
+
+    /**
+     * Lay out a page holding the given records, one per slot; null entries
+     * are empty slots.
+     *
+     * @throws IllegalArgumentException if the records do not fit
+     */
+    static byte[] buildPageData(byte[][] records, int pageSize) {
+        byte[] page = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        buf.putShort((short) records.length);
+        buf.putShort((short) 0);
+
+        int end = pageSize;
+        for (int i = 0; i < records.length; i++) {
+            if (records[i] == null) {
+                buf.putInt(0);
+                continue;
+            }
+            end -= records[i].length;
+            if (end < HEADER_SIZE + records.length * SLOT_SIZE)
+                throw new IllegalArgumentException("records do not fit on a page");
+            System.arraycopy(records[i], 0, page, end, records[i].length);
+            buf.putShort((short) end);
+            buf.putShort((short) records[i].length);
+        }
+        buf.putShort(2, (short) end);
+        return page;
+    }
+
+    /** @return the record bytes of t, in the variable-length encoding. */
+    byte[] encode(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j=0; j<td.numFields(); j++)
+                td.getFieldType(j).serializeCompact(t.getField(j), dos);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /** @return the smallest number of bytes a record of this table takes. */
+    private int minRecordSize() {
+        int n = 0;
+        for (int j=0; j<td.numFields(); j++)
+            n += (td.getFieldType(j) == Type.STRING_TYPE) ? 4 : td.getFieldType(j).getLen();
+        return n;
+    }
+
+    /** @return bytes not taken by the header, directory or records. */
+    private int freeBytes() {
+        return pageSize - HEADER_SIZE - numSlots * SLOT_SIZE - usedBytes;
+    }
+
+    /** @return the first empty directory entry, or numSlots if none. */
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++)
+            if (lengths[i] == 0)
+                return i;
+        return numSlots;
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        int slotNo = t.m_rid.tupleno;
+        if (!t.m_rid.pid.equals(getId()))
+            throw new DbException("Tuple is not on this page");
+        if (!isSlotUsed(slotNo))
+            throw new DbException("Tuple slot is already empty.");
+        captureBeforeImage();
+        usedBytes -= lengths[slotNo];
+        lengths[slotNo] = 0;
+        offsets[slotNo] = 0;
+        tuples[slotNo] = null;
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        byte[] rec = encode(t);
+        int slot = firstEmptySlot();
+        int need = rec.length + (slot == numSlots ? SLOT_SIZE : 0);
+        if (need > freeBytes())
+            throw new DbException("Page is full - no room for tuple");
+
+        captureBeforeImage();
+        if (slot == offsets.length) {
+            int cap = offsets.length * 2;
+            int[] no = new int[cap];
+            int[] nl = new int[cap];
+            Tuple[] nt = new Tuple[cap];
+            System.arraycopy(offsets, 0, no, 0, numSlots);
+            System.arraycopy(lengths, 0, nl, 0, numSlots);
+            System.arraycopy(tuples, 0, nt, 0, numSlots);
+            offsets = no;
+            lengths = nl;
+            tuples = nt;
+        }
+        if (slot == numSlots)
+            numSlots++;
+        offsets[slot] = -1;
+        lengths[slot] = rec.length;
+        usedBytes += rec.length;
+        t.m_rid = new RecordId(getId(), slot);
+        tuples[slot] = t;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        int need = encode(t).length + (firstEmptySlot() == numSlots ? SLOT_SIZE : 0);
+        return need <= freeBytes();
+    }
+
+    /**
+     * Returns the number of tuples of the smallest possible size that still
+     * fit on this page. Larger tuples may not fit even if this is non-zero;
+     * use {@link #hasRoomFor} to check a particular one.
+     */
+    public int getNumEmptySlots() {
+        int min = Math.max(1, minRecordSize());
+        int free = freeBytes();
+        int reusable = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (lengths[i] == 0)
+                reusable++;
+        int n = Math.min(reusable, free / min);
+        free -= n * min;
+        return n + free / (min + SLOT_SIZE);
+    }
+
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && lengths[i] > 0;
+    }
+}
@@ -66,6 +66,21 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string to dos without padding: four bytes of string length
+	 * followed by the string itself. Used by variable-length (slotted) pages.
+	 * 
+	 * @param dos
+	 *            Where the string is written
+	 */
+	public void serializeCompact(DataOutputStream dos) throws IOException {
+		String s = value;
+		if (s.length() > maxSize)
+			s = s.substring(0, maxSize);
+		dos.writeInt(s.length());
+		dos.writeBytes(s);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -172,9 +172,36 @@ public class TableStats {
 			e.printStackTrace();
 		} catch (TransactionAbortedException e) {
 			e.printStackTrace();
+		} finally {
+			// a lock left behind would block writers for good
+			Database.getBufferPool().releaseAllPageLocks(tid);
 		}
     }
 
+    /**
+     * Create a TableStats object from histograms that were computed while
+     * the table was written, e.g. by {@link BulkLoader}, instead of scanning
+     * the table. Histograms must be given for each INT_TYPE and STRING_TYPE
+     * column respectively.
+     *
+     * @param tableid
+     *            The table the statistics describe
+     * @param ioCostPerPage
+     *            The cost per page of IO.
+     * @param numTuples
+     *            The number of tuples in the table
+     */
+    public TableStats(int tableid, int ioCostPerPage, int numTuples,
+            IntHistogram[] intHist, StringHistogram[] strHist) {
+    	m_tableid = tableid;
+    	m_ioCostPerPage = ioCostPerPage;
+    	m_numTuples = numTuples;
+    	m_f = Database.getCatalog().getDbFile(tableid);
+    	m_td = m_f.getTupleDesc();
+    	m_intHist = intHist;
+    	m_strHist = strHist;
+    }
+
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
      * to read a page is costPerPageIO. You can assume that there are no seeks
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,30 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parseCompact(ByteBuffer buf) throws ParseException {
+            return parse(buf);
+        }
+
+        @Override
+        public void serializeCompact(Field f, DataOutputStream dos) throws IOException {
+            f.serialize(dos);
+        }
+
+        @Override
+        public void skipCompact(ByteBuffer buf) {
+            buf.position(buf.position() + 4);
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +68,42 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int strLen = buf.getInt();
+                byte bs[] = new byte[strLen];
+                buf.get(bs);
+                buf.position(buf.position() + STRING_LEN - strLen);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (RuntimeException e) {
+                // underflow, or a corrupt length running past the buffer
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parseCompact(ByteBuffer buf) throws ParseException {
+            try {
+                byte bs[] = new byte[buf.getInt()];
+                buf.get(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (RuntimeException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public void serializeCompact(Field f, DataOutputStream dos) throws IOException {
+            ((StringField) f).serializeCompact(dos);
+        }
+
+        @Override
+        public void skipCompact(ByteBuffer buf) {
+            int strLen = buf.getInt();
+            buf.position(buf.position() + strLen);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +122,33 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the current position of the specified buffer. The buffer's
+   *   position is advanced past the field.
+   * @param buf The buffer to read from
+   * @throws ParseException if the data in the buffer is not of the
+   *   appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
+  /**
+   * Like {@link #parse(ByteBuffer)}, but for the variable-length encoding
+   * used by {@link SlottedHeapPage}, in which strings are stored without
+   * padding.
+   */
+    public abstract Field parseCompact(ByteBuffer buf) throws ParseException;
+
+  /**
+   * Write f, a field of this type, in the variable-length encoding read by
+   * {@link #parseCompact}.
+   */
+    public abstract void serializeCompact(Field f, DataOutputStream dos) throws IOException;
+
+  /**
+   * Advance buf past one field of this type in the variable-length
+   * encoding, without decoding it.
+   */
+    public abstract void skipCompact(ByteBuffer buf);
+
 }
@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolStatsTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createHeapFilePages(2, 10, 3, null);
+        bp = Database.getBufferPool();
+    }
+
+    private void read(int... pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pg : pages)
+            bp.getPage(tid, new HeapPageId(hf.getId(), pg), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    @Test public void hitsMissesEvictions() throws Exception {
+        read(0, 1, 2, 3, 4);
+        read(4);
+        for (PageStats st : new PageStats[] { bp.m_default.stats, bp.tableStats(hf.getId()) }) {
+            assertEquals(1, st.getHits());
+            assertEquals(5, st.getMisses());
+            assertEquals(2, st.getEvictions());
+            assertEquals(5, st.getReads());
+            assertEquals(5 * hf.getPageSize(), st.getBytesRead());
+        }
+        assertEquals(3, bp.m_default.stats.getResidentPages());
+    }
+
+    @Test public void writesCounted() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertEquals(1, bp.m_default.stats.getDirtyPages());
+        bp.transactionComplete(tid, true);
+        assertEquals(0, bp.m_default.stats.getDirtyPages());
+        assertEquals(1, bp.m_default.stats.getFlushes());
+        assertEquals(hf.getPageSize(), bp.tableStats(hf.getId()).getBytesWritten());
+        assertEquals(1, bp.tableStats(hf.getId()).getWrites());
+    }
+
+    @Test public void publishedAsMBeans() throws Exception {
+        read(0, 0);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pool = new ObjectName("simpledb:type=BufferPool,pool=" + ObjectName.quote(BufferPool.DEFAULT_POOL));
+        assertEquals(1L, server.getAttribute(pool, "Hits"));
+        assertEquals(3, server.getAttribute(pool, "Capacity"));
+        assertTrue(server.isRegistered(new ObjectName("simpledb:type=Locks")));
+        assertTrue(bp.statsReport().contains("pool default"));
+    }
+
+    @Test public void counterSumsConcurrentUpdates() throws Exception {
+        final Counter c = new Counter();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int n = 0; n < 100000; n++)
+                        c.increment();
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(400000, c.sum());
+    }
+
+    @Test public void histogramPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 99; i++)
+            h.record(1000);
+        h.record(1000000);
+        assertEquals(100, h.count());
+        assertEquals(1024, h.percentileNanos(0.5));
+        assertEquals(1024, h.percentileNanos(0.99));
+        assertEquals(1 << 20, h.percentileNanos(1.0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private Type[] types;
+    private TupleDesc td;
+    private File txt;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        td = new TupleDesc(types, new String[] { "a", "b", "c" });
+
+        txt = File.createTempFile("bulk", ".txt");
+        txt.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(txt));
+        for (int i = 0; i < ROWS; i++)
+            pw.println(i + ",s" + (i % 97) + "," + (i % 10));
+        pw.close();
+    }
+
+    /** Load with small chunks on several threads and add the result as a table. */
+    private HeapFile load(boolean slotted, BulkLoader loader) throws Exception {
+        File dat = File.createTempFile("bulk", ".dat");
+        dat.deleteOnExit();
+        loader.chunkBytes = 4096;
+        loader.setThreads(4);
+        loader.setSlotted(slotted);
+        loader.load(txt, dat);
+
+        HeapFile hf = new HeapFile(dat, td);
+        hf.setSlotted(slotted);
+        Database.getCatalog().addTable(hf, "bulk");
+        return hf;
+    }
+
+    private void checkContents(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new IntField(n), t.getField(0));
+            assertEquals("s" + (n % 97), ((StringField) t.getField(1)).getValue());
+            assertEquals(new IntField(n % 10), t.getField(2));
+            n++;
+        }
+        it.close();
+        assertEquals(ROWS, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Chunks are encoded in parallel but written in input order.
+     */
+    @Test public void parallelLoadKeepsOrder() throws Exception {
+        BulkLoader loader = new BulkLoader(types, BufferPool.PAGE_SIZE);
+        HeapFile hf = load(false, loader);
+        assertEquals(ROWS, loader.getNumTuples());
+        assertEquals(hf.numPages(), loader.getNumPages());
+        checkContents(hf);
+    }
+
+    @Test public void parallelLoadSlotted() throws Exception {
+        BulkLoader loader = new BulkLoader(types, BufferPool.PAGE_SIZE);
+        HeapFile hf = load(true, loader);
+        checkContents(hf);
+    }
+
+    /**
+     * Statistics gathered during the load agree with ones computed by
+     * scanning the table.
+     */
+    @Test public void statsDuringLoad() throws Exception {
+        BulkLoader loader = new BulkLoader(types, BufferPool.PAGE_SIZE);
+        loader.setComputeStats(true);
+        HeapFile hf = load(false, loader);
+
+        TableStats loaded = loader.getTableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        TableStats scanned = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        assertEquals(scanned.totalTuples(), loaded.totalTuples());
+        assertEquals(scanned.estimateScanCost(), loaded.estimateScanCost(), 0.0);
+
+        int[] probes = { 0, 1000, 2500, 4999 };
+        for (int v : probes)
+            assertEquals(scanned.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(v)),
+                    loaded.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(v)), 0.02);
+        assertEquals(scanned.estimateSelectivity(2, Predicate.Op.EQUALS, new IntField(3)),
+                loaded.estimateSelectivity(2, Predicate.Op.EQUALS, new IntField(3)), 0.02);
+        assertEquals(scanned.estimateSelectivity(1, Predicate.Op.EQUALS, new StringField("s5", 128)),
+                loaded.estimateSelectivity(1, Predicate.Op.EQUALS, new StringField("s5", 128)), 1e-9);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CommitGroupTest extends SimpleDbTestBase {
+    private static final int THREADS = 4;
+    private static final int COMMITS = 25;
+
+    private HeapFile[] tables = new HeapFile[THREADS];
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < THREADS; i++) {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            File f = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 1000, null, tuples);
+            tables[i] = Utility.openHeapFile(2, f);
+        }
+        bp = Database.getBufferPool();
+    }
+
+    /** @return the number of tuples in hf's first page on disk. */
+    private int onDisk(HeapFile hf) {
+        HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        return p.numSlots - p.getNumEmptySlots();
+    }
+
+    @Test public void separateCommitsSeparateGroups() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            TransactionId tid = new TransactionId();
+            bp.insertTuple(tid, tables[0].getId(), Utility.getHeapTuple(new int[] { i, i }));
+            bp.transactionComplete(tid, true);
+        }
+        assertEquals(2, bp.m_commits.groupsWritten);
+        assertEquals(12, onDisk(tables[0]));
+    }
+
+    /** Concurrent commits are all written, in no more groups than commits. */
+    @Test public void concurrentCommitsAllWritten() throws Exception {
+        final Throwable[] failed = new Throwable[1];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int tableId = tables[i].getId();
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int c = 0; c < COMMITS; c++) {
+                            TransactionId tid = new TransactionId();
+                            bp.insertTuple(tid, tableId, Utility.getHeapTuple(new int[] { c, c }));
+                            bp.transactionComplete(tid, true);
+                        }
+                    } catch (Throwable t) {
+                        failed[0] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertNull(failed[0]);
+
+        assertTrue(bp.m_commits.groupsWritten <= THREADS * COMMITS);
+        for (HeapFile hf : tables)
+            assertEquals(10 + COMMITS, onDisk(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CommitGroupTest.class);
+    }
+}
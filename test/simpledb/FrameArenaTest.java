@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 4;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createHeapFilePages(2, 10, BufferPool.DEFAULT_PAGES, tuples);
+    }
+
+    /**
+     * Pages are read into arena buffers, and evictions return them.
+     */
+    @Test public void pagesUseArena() throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int pg = 0; pg < 10; pg++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), pg);
+            HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+            assertTrue(bp.frameFor(pid).buffer >= 0);
+            assertTrue(p.data.isDirect());
+            bp.releasePage(tid, pid);
+        }
+        assertEquals(0, bp.m_default.arena.available());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page evicted while a transaction still has it locked keeps its
+     * contents after its buffer is reused.
+     */
+    @Test public void evictedLockedPageDetached() throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        HeapPage first = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        for (int pg = 1; pg < 10; pg++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), pg), Permissions.READ_ONLY);
+        assertNull(bp.frameFor(first.getId()));
+        assertFalse(first.data.isDirect());
+
+        for (int i = 0; i < SystemTestUtil.tuplesPerPage(2); i++) {
+            Tuple t = first.getTuple(i);
+            assertEquals(new IntField(tuples.get(i).get(0)), t.getField(0));
+            assertEquals(new IntField(tuples.get(i).get(1)), t.getField(1));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private File dataFile;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        dataFile = File.createTempFile("fsm", ".dat");
+        dataFile.deleteOnExit();
+    }
+
+    @After public void tearDown() {
+        new File(dataFile.getPath() + ".fsm").delete();
+    }
+
+    /**
+     * Without a side file every page is a candidate.
+     */
+    @Test public void newMapIsConservative() {
+        FreeSpaceMap fsm = FreeSpaceMap.open(dataFile, 3);
+        assertEquals(0, fsm.nextCandidate(0));
+        assertEquals(1, fsm.nextCandidate(1));
+        assertEquals(2, fsm.nextCandidate(2));
+        assertEquals(-1, fsm.nextCandidate(3));
+    }
+
+    /**
+     * A cleanly saved map is reloaded as it was saved.
+     */
+    @Test public void saveAndReload() throws Exception {
+        FreeSpaceMap fsm = FreeSpaceMap.open(dataFile, 4);
+        fsm.setFree(0, false);
+        fsm.setFree(1, false);
+        fsm.setFree(3, false);
+        fsm.save();
+
+        fsm = FreeSpaceMap.open(dataFile, 4);
+        assertEquals(2, fsm.nextCandidate(0));
+        assertEquals(-1, fsm.nextCandidate(3));
+
+        // pages added to the data file since the save may have room
+        fsm = FreeSpaceMap.open(dataFile, 6);
+        assertEquals(2, fsm.nextCandidate(0));
+        assertEquals(4, fsm.nextCandidate(3));
+    }
+
+    /**
+     * A map changed after its last save is not trusted on reopen.
+     */
+    @Test public void uncleanMapIsRebuilt() throws Exception {
+        FreeSpaceMap fsm = FreeSpaceMap.open(dataFile, 2);
+        fsm.setFree(0, false);
+        fsm.save();
+        fsm.setFree(1, false);
+
+        // simulate a crash: reopen without saving
+        fsm = FreeSpaceMap.open(dataFile, 2);
+        assertEquals(0, fsm.nextCandidate(0));
+        assertEquals(1, fsm.nextCandidate(1));
+    }
+
+    /**
+     * HeapFile inserts only visit pages with room, and deletes free pages up.
+     */
+    @Test public void heapFileUsesMap() throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(dataFile.getAbsolutePath(), 2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 505; ++i)
+            hf.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, hf.numPages());
+        assertFalse(hf.freeSpaceMap().isFree(0));
+        assertTrue(hf.freeSpaceMap().isFree(1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The maps of catalog tables are saved at shutdown, and trusted after it. */
+    @Test public void savedAtShutdown() throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(dataFile.getAbsolutePath(), 2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 505; ++i)
+            hf.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().saveFiles();
+
+        FreeSpaceMap fsm = FreeSpaceMap.open(dataFile, 2);
+        assertEquals(1, fsm.nextCandidate(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
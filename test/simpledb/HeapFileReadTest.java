@@ -3,7 +3,12 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -77,6 +82,29 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through the memory-mapped path
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = ((HeapPage) hf.readPage(pid)).getPageData();
+
+        hf.setMemoryMapped(true);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertArrayEquals(expected, page.getPageData());
+        assertEquals(484, page.getNumEmptySlots());
+
+        // a page appended after the file was mapped must still be readable
+        HeapPage appended = new HeapPage(new HeapPageId(hf.getId(), 1),
+                HeapPage.createEmptyPageData());
+        appended.insertTuple(Utility.getHeapTuple(7, 2));
+        hf.writePage(appended);
+        page = (HeapPage) hf.readPage(appended.getId());
+        assertEquals(503, page.getNumEmptySlots());
+        assertArrayEquals(appended.getPageData(), page.getPageData());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +149,126 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    @Test
+    public void testIteratorReadAhead() throws Exception {
+        // four pages; a fresh pool has room for all of them
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 2000,
+                null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        DbFileIterator it = bigFile.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count += 1;
+        }
+        it.close();
+        assertEquals(2000, count);
+        assertTrue(bp.getPrefetchIssued() > 0);
+        assertTrue(bp.getPrefetchHits() <= bp.getPrefetchIssued());
+    }
+
+    /** Read-ahead runs deeper while the scan catches up with it. */
+    @Test
+    public void readAheadDepthAdapts() throws Exception {
+        HeapFile bigFile = SystemTestUtil.createHeapFilePages(2, 20,
+                BufferPool.DEFAULT_PAGES, null);
+        BufferPool bp = Database.getBufferPool();
+        // hold back the reads until the scan has reached the pages
+        ExecutorService io = Executors.newSingleThreadExecutor();
+        final CountDownLatch go = new CountDownLatch(1);
+        io.execute(new Runnable() {
+            public void run() {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        bp.m_ioExecutor = io;
+        try {
+            ReadAhead ra = new ReadAhead(bigFile.getId());
+            int n = bigFile.numPages();
+            ra.access(0, n);
+            assertEquals(ReadAhead.MIN_DEPTH, ra.getDepth());
+            ra.access(1, n);
+            ra.access(2, n);
+            assertEquals(4 * ReadAhead.MIN_DEPTH, ra.getDepth());
+            go.countDown();
+            // the executor runs in order: this waits for the reads
+            io.submit(new Runnable() {
+                public void run() {
+                }
+            }).get(10, TimeUnit.SECONDS);
+            ra.access(3, n);
+            assertEquals(8 * ReadAhead.MIN_DEPTH, ra.getDepth());
+            ra.access(0, n);
+            assertEquals(ReadAhead.MIN_DEPTH, ra.getDepth());
+        } finally {
+            go.countDown();
+            io.shutdownNow();
+            bp.m_ioExecutor = null;
+        }
+    }
+
+    /**
+     * A prefetch that read a page before a commit wrote it, and that the
+     * pool evicted after, does not bring the old version back.
+     */
+    @Test
+    public void prefetchDropsStaleRead() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2,
+                SystemTestUtil.tuplesPerPage(2), 1000, null, null);
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch go = new CountDownLatch(1);
+        final boolean[] block = new boolean[1];
+        HeapFile slow = new HeapFile(f, td) {
+            public Page readPage(PageId pid) {
+                Page p = super.readPage(pid);
+                if (block[0]) {
+                    block[0] = false;
+                    reading.countDown();
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                return p;
+            }
+        };
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ExecutorService io = Executors.newSingleThreadExecutor();
+        bp.m_ioExecutor = io;
+        HeapPageId pid = new HeapPageId(slow.getId(), 0);
+        try {
+            block[0] = true;
+            bp.prefetchPage(pid);
+            reading.await();
+            // as if a reader had checked for the read-ahead just before
+            // it was issued, and read the page itself
+            bp.m_inFlight.remove(pid);
+            TransactionId t1 = new TransactionId();
+            HeapPage p = (HeapPage) bp.getPage(t1, pid, Permissions.READ_WRITE);
+            bp.deleteTuple(t1, p.getTuple(0));
+            bp.transactionComplete(t1, true);
+            bp.discardPage(pid);
+
+            go.countDown();
+            io.submit(new Runnable() {
+                public void run() {
+                }
+            }).get(10, TimeUnit.SECONDS);
+            p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+            assertFalse(p.isSlotUsed(0));
+        } finally {
+            go.countDown();
+            io.shutdownNow();
+            bp.m_ioExecutor = null;
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.File;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,69 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.setExtentPages()
+     */
+    @Test public void preExtend() throws Exception {
+        empty.setExtentPages(8);
+        for (int i = 0; i < 505; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+
+        // the file grew by a whole extent, but only two pages are in use
+        assertEquals(2, empty.numPages());
+        assertEquals(8 * BufferPool.PAGE_SIZE, empty.getFile().length());
+
+        // closing trims the unused tail
+        empty.close();
+        assertEquals(2 * BufferPool.PAGE_SIZE, empty.getFile().length());
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * An extent left untrimmed by a crash is not counted on reopen, and is
+     * trimmed at shutdown.
+     */
+    @Test public void preExtendedTailIgnored() throws Exception {
+        empty.setExtentPages(8);
+        for (int i = 0; i < 505; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid, true);
+        assertEquals(8 * BufferPool.PAGE_SIZE, empty.getFile().length());
+
+        HeapFile reopened = new HeapFile(empty.getFile(), Utility.getTupleDesc(2));
+        assertEquals(2, reopened.numPages());
+        reopened.close();
+
+        Database.getCatalog().saveFiles();
+        assertEquals(2 * BufferPool.PAGE_SIZE, empty.getFile().length());
+    }
+
+    /**
+     * Unit test for a HeapFile with a non-default page size
+     */
+    @Test public void largePages() throws Exception {
+        File f = File.createTempFile("large", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), 4 * BufferPool.PAGE_SIZE);
+        Database.getCatalog().addTable(hf, simpledb.systemtest.SystemTestUtil.getUUID());
+
+        // 2016 tuples fit on a 16 KB page
+        for (int i = 0; i < 2017; ++i)
+            hf.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, hf.numPages());
+        assertEquals(8 * BufferPool.PAGE_SIZE, f.length());
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(2017, count);
+    }
+
     /**
      * JUnit suite target
      */
@@ -74,6 +74,9 @@ public class HeapPageIdTest extends SimpleDbTestBase {
         assertFalse(pid1Copy.equals(pid2));
         assertFalse(pid2.equals(pid1));
         assertFalse(pid2.equals(pid1Copy));
+
+        // table 1 page 23 is not table 12 page 3
+        assertFalse(new HeapPageId(1, 23).equals(new HeapPageId(12, 3)));
     }
 
     /**
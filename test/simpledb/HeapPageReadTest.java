@@ -112,6 +112,40 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         } catch (UnsupportedOperationException e) {}
     }
 
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            assertEquals(EXAMPLE_VALUES[i][1], ((IntField) page.getField(i, 1)).getValue());
+            assertEquals(EXAMPLE_VALUES[i][0], ((IntField) page.getField(i, 0)).getValue());
+        }
+        assertNull(page.getField(20, 0));
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate)
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate pred = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+        Iterator<Tuple> it = page.iterator(pred);
+
+        int matches = 0;
+        for (int[] tuple : EXAMPLE_VALUES) {
+            if (tuple[0] > 30000) {
+                assertTrue(it.hasNext());
+                Tuple tup = it.next();
+                assertEquals(tuple[0], ((IntField) tup.getField(0)).getValue());
+                matches++;
+            }
+        }
+        assertFalse(it.hasNext());
+        assertEquals(9, matches);
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -44,6 +44,27 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         assertEquals(false, dirtier != null);
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage() and setBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+
+        // an unmodified page is its own before image
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        assertEquals(free - 1, page.getNumEmptySlots());
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        // after a commit the current contents become the before image
+        page.setBeforeImage();
+        assertEquals(free - 1, page.getBeforeImage().getNumEmptySlots());
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertEquals(free - 1, page.getBeforeImage().getNumEmptySlots());
+    }
+
     /**
      * Unit test for HeapPage.addTuple()
      */
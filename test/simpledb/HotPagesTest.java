@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HotPagesTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 10;
+
+    private HeapFile hf;
+    private File hot;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createHeapFilePages(2, TABLE_PAGES, BufferPool.DEFAULT_PAGES, null);
+        hot = File.createTempFile("hot", ".pages");
+        hot.deleteOnExit();
+    }
+
+    private void read(BufferPool bp, int... pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pg : pages)
+            bp.getPage(tid, new HeapPageId(hf.getId(), pg), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    /** Wait for the background load to finish. */
+    private void awaitLoaded(BufferPool bp, int pages) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((bp.m_default.size.get() < pages || !bp.m_inFlight.isEmpty())
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(pages, bp.m_default.size.get());
+    }
+
+    @Test public void lruOrder() throws Exception {
+        BufferPool bp = new BufferPool(20, "lru");
+        read(bp, 0, 1, 2, 3);
+        read(bp, 1);
+        List<PageId> pids = bp.hotPages();
+        assertEquals(4, pids.size());
+        assertEquals(new HeapPageId(hf.getId(), 1), pids.get(0));
+        assertEquals(new HeapPageId(hf.getId(), 0), pids.get(3));
+    }
+
+    /** A new pool loads the pages the old one saved. */
+    @Test public void saveAndReload() throws Exception {
+        BufferPool bp = Database.resetBufferPool(20);
+        read(bp, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        bp.setHotPageFile(hot, 0);
+        bp.saveHotPages();
+
+        bp = Database.resetBufferPool(20);
+        bp.setHotPageFile(hot, 0);
+        assertEquals(TABLE_PAGES, bp.loadHotPages());
+        awaitLoaded(bp, TABLE_PAGES);
+        for (int pg = 0; pg < TABLE_PAGES; pg++)
+            assertNotNull(bp.frameFor(new HeapPageId(hf.getId(), pg)));
+    }
+
+    /** Loading stops when the pool is full, keeping the pages listed first. */
+    @Test public void reloadFillsSmallerPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(20);
+        read(bp, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        bp.setHotPageFile(hot, 0);
+        bp.saveHotPages();
+        List<PageId> saved = bp.hotPages();
+
+        bp = Database.resetBufferPool(4);
+        bp.setHotPageFile(hot, 0);
+        bp.loadHotPages();
+        awaitLoaded(bp, 4);
+        for (int i = 0; i < 4; i++)
+            assertNotNull(bp.frameFor(saved.get(i)));
+    }
+
+    /** Pages are reloaded in file order, from those listed first. */
+    @Test public void reloadInFileOrder() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        List<PageId> listed = new ArrayList<PageId>();
+        for (int pg : new int[] { 9, 3, 7, 1, 5, 0 })
+            listed.add(new HeapPageId(hf.getId(), pg));
+        List<PageId> load = bp.hotPagesToLoad(listed);
+        assertEquals(4, load.size());
+        int[] expect = { 1, 3, 7, 9 };
+        for (int i = 0; i < 4; i++)
+            assertEquals(new HeapPageId(hf.getId(), expect[i]), load.get(i));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HotPagesTest.class);
+    }
+}
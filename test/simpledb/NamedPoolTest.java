@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class NamedPoolTest extends SimpleDbTestBase {
+    private HeapFile small;
+    private HeapFile big;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        small = SystemTestUtil.createHeapFilePages(2, 3, 10, null);
+        big = SystemTestUtil.createHeapFilePages(2, 30, 10, null);
+        bp = Database.getBufferPool();
+    }
+
+    private void read(HeapFile hf, int pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pg = 0; pg < pages; pg++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), pg), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    /** Reading a big table does not evict the pages of another pool. */
+    @Test public void poolsIsolateTables() throws Exception {
+        bp.addPool("lookup", 5, "lru");
+        bp.assignTable(small.getId(), "lookup");
+        read(small, 3);
+        read(big, 30);
+
+        for (int pg = 0; pg < 3; pg++)
+            assertNotNull(bp.frameFor(new HeapPageId(small.getId(), pg)));
+        assertEquals(3, bp.m_pools.get("lookup").size.get());
+        assertEquals(10, bp.m_default.size.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicatePool() {
+        bp.addPool("lookup", 5, "clock");
+        bp.addPool("lookup", 5, "clock");
+    }
+
+    @Test public void catalogDeclaresPools() throws Exception {
+        File dir = File.createTempFile("pools", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        FileWriter w = new FileWriter(catalog);
+        w.write("pool lookup pages=8 policy=lru\n");
+        w.write("users (id int pk, age int) pool=lookup\n");
+        w.write("events (id int, at int)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(catalog.getPath());
+        assertEquals("lookup", bp.poolFor(Database.getCatalog().getTableId("users")).name);
+        assertSame(bp.m_default, bp.poolFor(Database.getCatalog().getTableId("events")));
+        assertEquals(8, bp.m_pools.get("lookup").limit);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NamedPoolTest.class);
+    }
+}
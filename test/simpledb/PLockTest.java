@@ -0,0 +1,214 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PLockTest {
+    private final PageId pid = new HeapPageId(1, 0);
+    private final PageId pid2 = new HeapPageId(1, 1);
+    private TransactionId tid1, tid2, tid3;
+    private LockManager locks;
+    private long deadlocks;
+
+    /** Requests a lock on another thread and records when it was granted. */
+    private class Waiter extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile long grantedAt;
+        volatile Exception error;
+
+        Waiter(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            start();
+        }
+
+        public void run() {
+            try {
+                locks.acquireLock(tid, pid, perm);
+                grantedAt = System.nanoTime();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        void awaitQueued(int waiters) throws InterruptedException {
+            while (locks.waiters(pid) < waiters)
+                Thread.sleep(1);
+        }
+    }
+
+    @Before public void setUp() {
+        locks = new LockManager();
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+        deadlocks = locks.m_stats.getDeadlocks();
+    }
+
+    @Test public void releaseGrantsWaiter() throws Exception {
+        locks.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        Waiter w = new Waiter(tid2, pid, Permissions.READ_WRITE);
+        w.awaitQueued(1);
+        long released = System.nanoTime();
+        locks.releaseByTrans(tid1);
+        w.join();
+        assertNull(w.error);
+        assertTrue(locks.holdsLock(tid2, pid));
+        assertTrue(w.grantedAt >= released);
+    }
+
+    @Test public void readersQueueBehindWriter() throws Exception {
+        locks.acquireLock(tid1, pid, Permissions.READ_ONLY);
+        Waiter w = new Waiter(tid2, pid, Permissions.READ_WRITE);
+        w.awaitQueued(1);
+        assertFalse(locks.gotLock(tid3, pid, Permissions.READ_ONLY));
+        locks.releaseByTrans(tid1);
+        w.join();
+        assertNull(w.error);
+        assertFalse(locks.gotLock(tid3, pid, Permissions.READ_ONLY));
+        locks.releaseByTrans(tid2);
+        assertTrue(locks.gotLock(tid3, pid, Permissions.READ_ONLY));
+        locks.releaseByTrans(tid3);
+        assertFalse(locks.isLocked(pid));
+    }
+
+    @Test public void upgradeWaitsForOtherReaders() throws Exception {
+        locks.acquireLock(tid1, pid, Permissions.READ_ONLY);
+        locks.acquireLock(tid2, pid, Permissions.READ_ONLY);
+        Waiter w = new Waiter(tid1, pid, Permissions.READ_WRITE);
+        w.awaitQueued(1);
+        locks.releaseByTrans(tid2);
+        w.join();
+        assertNull(w.error);
+        assertFalse(locks.gotLock(tid2, pid, Permissions.READ_ONLY));
+    }
+
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        locks.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        locks.acquireLock(tid2, pid2, Permissions.READ_WRITE);
+        Waiter w1 = new Waiter(tid1, pid2, Permissions.READ_WRITE);
+        w1.awaitQueued(1);
+        Waiter w2 = new Waiter(tid2, pid, Permissions.READ_ONLY);
+        w2.join();
+        assertTrue(w2.error instanceof TransactionAbortedException);
+        assertTrue(w1.isAlive());
+        locks.releaseByTrans(tid2);
+        w1.join();
+        assertNull(w1.error);
+        assertTrue(locks.holdsLock(tid1, pid2));
+    }
+
+    @Test public void upgradeDeadlockByFewestLocks() throws Exception {
+        locks.setVictimPolicy(LockManager.Victim.FEWEST_LOCKS);
+        try {
+            locks.acquireLock(tid1, pid, Permissions.READ_ONLY);
+            locks.acquireLock(tid2, pid, Permissions.READ_ONLY);
+            locks.acquireLock(tid2, pid2, Permissions.READ_ONLY);
+            Waiter w2 = new Waiter(tid2, pid, Permissions.READ_WRITE);
+            w2.awaitQueued(1);
+            Waiter w1 = new Waiter(tid1, pid, Permissions.READ_WRITE);
+            w1.join();
+            assertTrue(w1.error instanceof TransactionAbortedException);
+            locks.releaseByTrans(tid1);
+            w2.join();
+            assertNull(w2.error);
+            assertEquals(1, locks.m_stats.getDeadlocks() - deadlocks);
+        } finally {
+            locks.setVictimPolicy(LockManager.Victim.YOUNGEST);
+        }
+    }
+
+    @Test public void waitWithoutCycleIsNotAborted() throws Exception {
+        locks.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        Waiter w = new Waiter(tid2, pid, Permissions.READ_WRITE);
+        w.awaitQueued(1);
+        Thread.sleep(200);
+        assertTrue(w.isAlive());
+        locks.releaseByTrans(tid1);
+        w.join();
+        assertNull(w.error);
+    }
+
+    @Test public void intentLocksAllowOtherPages() throws Exception {
+        locks.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        assertTrue(locks.gotLock(tid2, pid2, Permissions.READ_WRITE));
+        assertEquals(PLock.Mode.IX, locks.tableMode(tid2, 1));
+        assertFalse(locks.gotLock(tid3, pid, Permissions.READ_ONLY));
+    }
+
+    /** A failed try-lock does not keep the table intention lock it took. */
+    @Test public void failedTryLockReleasesTable() throws Exception {
+        locks.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        assertFalse(locks.gotLock(tid2, pid, Permissions.READ_ONLY));
+        assertNull(locks.tableMode(tid2, 1));
+        locks.acquireLock(tid2, pid2, Permissions.READ_ONLY);
+        assertFalse(locks.gotLock(tid2, pid, Permissions.READ_WRITE));
+        assertEquals(PLock.Mode.IS, locks.tableMode(tid2, 1));
+        locks.releaseByTrans(tid1);
+        locks.releaseByTrans(tid2);
+        assertTrue(locks.gotLock(tid3, pid, Permissions.READ_WRITE));
+        locks.lockTable(tid3, 1, Permissions.READ_WRITE);
+    }
+
+    @Test public void tableLockCoversPages() throws Exception {
+        locks.lockTable(tid1, 1, Permissions.READ_ONLY);
+        locks.acquireLock(tid1, pid, Permissions.READ_ONLY);
+        assertTrue(locks.holdsLock(tid1, pid2));
+        assertTrue(locks.isLocked(pid2));
+        assertEquals(0, locks.waiters(pid));
+        assertTrue(locks.gotLock(tid2, pid2, Permissions.READ_ONLY));
+        Waiter w = new Waiter(tid3, pid2, Permissions.READ_WRITE);
+        while (locks.waiters(new PLock.TableLockId(1)) < 1)
+            Thread.sleep(1);
+        locks.releaseByTrans(tid1);
+        locks.releaseByTrans(tid2);
+        w.join();
+        assertNull(w.error);
+        assertEquals(PLock.Mode.IX, locks.tableMode(tid3, 1));
+    }
+
+    @Test public void escalatesToTableLock() throws Exception {
+        long escalations = locks.m_stats.getEscalations();
+        locks.setEscalationThreshold(3);
+        try {
+            for (int i = 0; i < 3; i++)
+                locks.acquireLock(tid1, new HeapPageId(1, i), Permissions.READ_ONLY);
+            assertEquals(PLock.Mode.S, locks.tableMode(tid1, 1));
+            locks.acquireLock(tid2, new HeapPageId(2, 0), Permissions.READ_WRITE);
+            for (int i = 0; i < 3; i++)
+                locks.acquireLock(tid2, new HeapPageId(2, i), Permissions.READ_ONLY);
+            assertEquals(PLock.Mode.X, locks.tableMode(tid2, 2));
+            for (int i = 0; i < 3; i++)
+                assertTrue(locks.gotLock(tid3, new HeapPageId(3, i), Permissions.READ_ONLY));
+            assertEquals(PLock.Mode.S, locks.tableMode(tid3, 3));
+            assertEquals(3, locks.m_stats.getEscalations() - escalations);
+        } finally {
+            locks.setEscalationThreshold(LockManager.ESCALATE_PAGES);
+        }
+    }
+
+    /** Managers share nothing: a lock in one does not block the other. */
+    @Test public void managersAreIndependent() throws Exception {
+        LockManager other = new LockManager(1);
+        locks.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        assertTrue(other.gotLock(tid2, pid, Permissions.READ_WRITE));
+        assertFalse(locks.gotLock(tid2, pid, Permissions.READ_ONLY));
+        assertFalse(other.holdsLock(tid1, pid));
+        other.releaseByTrans(tid2);
+        assertFalse(other.isLocked(pid));
+        assertTrue(locks.isLocked(pid));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PLockTest.class);
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createHeapFilePages(2, 10, BufferPool.DEFAULT_PAGES, null);
+    }
+
+    /** Insert the tuple (-42, -43) and commit. */
+    private PageId insertAndCommit() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Tuple tup = Utility.getHeapTuple(new int[] { -42, -43 });
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tup);
+        t.commit();
+        return tup.getRecordId().getPageId();
+    }
+
+    /** @return true if the tuple (-42, -43) is on the page on disk. */
+    private boolean onDisk(PageId pid) {
+        Iterator<Tuple> it = ((HeapPage) hf.readPage(pid)).iterator();
+        while (it.hasNext())
+            if (it.next().getField(0).equals(new IntField(-42)))
+                return true;
+        return false;
+    }
+
+    /**
+     * Without FORCE, commit leaves the page to the cleaner, which writes it
+     * soon after.
+     */
+    @Test public void cleanerWritesCommittedPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(20);
+        bp.setForce(false);
+        PageId pid = insertAndCommit();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.frameFor(pid).unflushed && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertFalse(bp.frameFor(pid).unflushed);
+        assertTrue(onDisk(pid));
+    }
+
+    /**
+     * A pool full of committed but unwritten pages can still evict.
+     */
+    @Test public void evictionWritesCommittedPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(1);
+        bp.setForce(false);
+        PageId pid = insertAndCommit();
+
+        TransactionId tid = new TransactionId();
+        for (int pg = 0; pg < 10; pg++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), pg), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertTrue(onDisk(pid));
+    }
+
+    /**
+     * Recovery installs the updates of committed transactions, and only
+     * those.
+     */
+    @Test public void recoverRedoesCommittedUpdates() throws Exception {
+        File logf = File.createTempFile("cleaner", ".log");
+        logf.deleteOnExit();
+        LogFile log = new LogFile(logf);
+
+        HeapPageId won = new HeapPageId(hf.getId(), 0);
+        HeapPageId lost = new HeapPageId(hf.getId(), 1);
+        TransactionId winner = new TransactionId();
+        TransactionId loser = new TransactionId();
+        log.logXactionBegin(winner);
+        log.logXactionBegin(loser);
+
+        HeapPage p = (HeapPage) hf.readPage(won);
+        p.deleteTuple(p.getTuple(0));
+        log.logWrite(winner, p.getBeforeImage(), p);
+        HeapPage q = (HeapPage) hf.readPage(lost);
+        q.deleteTuple(q.getTuple(0));
+        log.logWrite(loser, q.getBeforeImage(), q);
+        log.logCommit(winner);
+
+        new LogFile(logf).recover();
+        assertFalse(((HeapPage) hf.readPage(won)).isSlotUsed(0));
+        assertTrue(((HeapPage) hf.readPage(lost)).isSlotUsed(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class RecordLockTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private BufferPool bp;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createHeapFilePages(2, 2, 10, null);
+        bp = Database.getBufferPool();
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    /** @return the tuple in a slot of page 0, read without locking it */
+    private Tuple tuple(int slot) {
+        return ((HeapPage) hf.readPage(pid)).getTuple(slot);
+    }
+
+    private HeapPage cached() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        return p;
+    }
+
+    /** Deletes of different tuples of a page neither wait nor undo each other. */
+    @Test(timeout = 10000) public void deletesOnOnePage() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, tuple(0));
+        bp.deleteTuple(t2, tuple(1));
+        bp.transactionComplete(t1, true);
+        bp.transactionComplete(t2, false);
+
+        HeapPage disk = (HeapPage) hf.readPage(pid);
+        assertFalse(disk.isSlotUsed(0));
+        assertTrue(disk.isSlotUsed(1));
+        HeapPage p = cached();
+        assertFalse(p.isSlotUsed(0));
+        assertTrue(p.isSlotUsed(1));
+    }
+
+    @Test(timeout = 10000) public void deleteOfLockedTupleWaits() throws Exception {
+        TransactionId t1 = new TransactionId();
+        final TransactionId t2 = new TransactionId();
+        final Tuple t = tuple(0);
+        final Exception[] thrown = new Exception[1];
+        bp.deleteTuple(t1, t);
+        Thread th = new Thread() {
+            public void run() {
+                try {
+                    bp.deleteTuple(t2, t);
+                } catch (Exception e) {
+                    thrown[0] = e;
+                }
+            }
+        };
+        th.start();
+        while (bp.getLockManager().waiters(t.getRecordId()) == 0)
+            Thread.sleep(10);
+        bp.transactionComplete(t1, true);
+        th.join();
+        // gone by the time it got the lock
+        assertTrue(thrown[0] instanceof DbException);
+        bp.transactionComplete(t2, false);
+    }
+
+    /** A slot freed by an uncommitted delete is not reused. */
+    @Test(timeout = 10000) public void insertSkipsUncommittedDelete() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Tuple old = tuple(0);
+        bp.deleteTuple(t1, old);
+        Tuple t = Utility.getHeapTuple(new int[] { 7, 7 });
+        bp.insertTuple(t2, hf.getId(), t);
+        assertFalse(t.getRecordId().getPageId().equals(pid));
+        bp.transactionComplete(t1, false);
+        bp.transactionComplete(t2, true);
+
+        assertTrue(cached().isSlotUsed(0));
+        assertEquals(3, hf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockTest.class);
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 20;
+    private static final int HOT_PAGES = 5;
+    private static final int TABLE_PAGES = 100;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createHeapFilePages(1, TABLE_PAGES, BufferPool.DEFAULT_PAGES, null);
+    }
+
+    private void read(BufferPool bp, int pgNo) throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Use a few hot pages now and then while a scan reads the rest of the
+     * table once. Every hot page is used again after 20 scan pages, more
+     * than the 15 frames the scan has to itself.
+     *
+     * @return the number of hot pages still resident after the scan
+     */
+    private int hotPagesAfterScan(String policy) throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES, policy);
+        for (int i = 0; i < HOT_PAGES; i++) {
+            read(bp, i);
+            read(bp, i);
+        }
+        int pg = HOT_PAGES;
+        for (int round = 0; round < 4; round++) {
+            if (round > 0)
+                for (int i = 0; i < HOT_PAGES; i++)
+                    read(bp, i);
+            for (int j = 0; j < 20; j++)
+                read(bp, pg++);
+        }
+
+        int resident = 0;
+        for (int i = 0; i < HOT_PAGES; i++)
+            if (bp.frameFor(new HeapPageId(hf.getId(), i)) != null)
+                resident++;
+        return resident;
+    }
+
+    /**
+     * CLOCK keeps the working set through the scan; LRU loses it.
+     */
+    @Test public void clockResistsScans() throws Exception {
+        assertEquals(HOT_PAGES, hotPagesAfterScan("clock"));
+        assertTrue(hotPagesAfterScan("lru") < HOT_PAGES);
+    }
+
+    /**
+     * Dirty pages are never chosen as victims.
+     */
+    @Test public void dirtyPagesNotEvicted() throws Exception {
+        BufferPool bp = new BufferPool(2, "clock");
+        TransactionId tid = new TransactionId();
+        Page p = bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        p.markDirty(true, tid);
+        for (int pg = 1; pg < 10; pg++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), pg), Permissions.READ_ONLY);
+        assertNotNull(bp.frameFor(p.getId()));
+        bp.transactionComplete(tid, false);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void unknownPolicy() {
+        new BufferPool(10, "mru");
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ScanRingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = ScanRing.RING_PAGES;
+    private static final int HOT_PAGES = 5;
+    private static final int TABLE_PAGES = 150;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createHeapFilePages(1, TABLE_PAGES, POOL_PAGES, null);
+    }
+
+    /**
+     * Scanning a table bigger than the pool reads everything, uses the
+     * pages already in the pool, and leaves the pool as it found it.
+     */
+    @Test public void largeScanLeavesPoolAlone() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < HOT_PAGES; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        assertEquals(SystemTestUtil.tuplesPerPage(1) * TABLE_PAGES, n);
+
+        for (int i = 0; i < TABLE_PAGES; i++)
+            assertEquals(i < HOT_PAGES, bp.frameFor(new HeapPageId(hf.getId(), i)) != null);
+    }
+
+    @Test public void onlyLargeTablesGetARing() {
+        BufferPool bp = Database.getBufferPool();
+        assertNull(bp.scanRing(hf.getId(), POOL_PAGES));
+        assertNotNull(bp.scanRing(hf.getId(), POOL_PAGES + 1));
+        // too small a pool to give rings out
+        assertNull(new BufferPool(POOL_PAGES - 1).scanRing(hf.getId(), TABLE_PAGES));
+    }
+
+    /**
+     * A page prefetched into a ring is dropped if the pool writes anything
+     * before the scan gets to it.
+     */
+    @Test public void stalePrefetchDropped() {
+        BufferPool bp = Database.getBufferPool();
+        Executor now = new Executor() {
+            public void execute(Runnable r) {
+                r.run();
+            }
+        };
+        PageId pid = new HeapPageId(hf.getId(), 3);
+
+        ScanRing ring = new ScanRing(bp);
+        assertTrue(ring.prefetch(pid, now));
+        assertNotNull(ring.get(pid));
+
+        ring = new ScanRing(bp);
+        ring.prefetch(pid, now);
+        bp.m_writes.incrementAndGet();
+        assertNull(ring.get(pid));
+        assertEquals(0, ring.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
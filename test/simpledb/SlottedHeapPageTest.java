@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private HeapFile hf;
+    private File dataFile;
+
+    /**
+     * Encode a small table of (int, string) rows in the slotted layout.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        td = new TupleDesc(types, new String[] { "id", "name" });
+
+        File txt = File.createTempFile("slotted", ".txt");
+        txt.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(txt));
+        for (int i = 0; i < 1000; i++)
+            pw.println(i + ",name" + i);
+        pw.close();
+
+        dataFile = File.createTempFile("slotted", ".dat");
+        dataFile.deleteOnExit();
+        HeapFileEncoder.convertSlotted(txt, dataFile, BufferPool.PAGE_SIZE, 2, types, ',');
+        hf = new HeapFile(dataFile, td);
+        hf.setSlotted(true);
+        Database.getCatalog().addTable(hf, "slotted");
+    }
+
+    /**
+     * Short strings are stored without padding, so far fewer pages are
+     * needed than the 132 bytes per string of the fixed layout.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        // 1000 fixed-width rows of 136 bytes need 34 pages
+        assertTrue(hf.numPages() <= 6);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new IntField(n), t.getField(0));
+            assertEquals("name" + n, ((StringField) t.getField(1)).getValue());
+            n++;
+        }
+        it.close();
+        assertEquals(1000, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts and deletes survive a round trip through getPageData, and
+     * slot numbers of the remaining tuples do not change.
+     */
+    @Test public void insertDeleteRoundTrip() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        SlottedHeapPage page = (SlottedHeapPage) hf.readPage(pid);
+        assertTrue(page.isSlotUsed(0));
+
+        Tuple victim = page.getTuple(1);
+        page.deleteTuple(victim);
+        assertFalse(page.isSlotUsed(1));
+
+        // the page was packed full, so only a record no longer than the
+        // deleted one fits in the space it left
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("a much longer name than the others", Type.STRING_LEN));
+        assertFalse(page.hasRoomFor(t));
+        t.setField(1, new StringField("other", Type.STRING_LEN));
+        assertTrue(page.hasRoomFor(t));
+        page.insertTuple(t);
+        assertEquals(1, t.getRecordId().tupleno());
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(page.numSlots, copy.numSlots);
+        assertEquals("other", ((StringField) copy.getTuple(1).getField(1)).getValue());
+        assertEquals(new IntField(2), copy.getField(2, 0));
+        assertEquals("name2", ((StringField) copy.getField(2, 1)).getValue());
+
+        // the before image is the page as it was read
+        HeapPage before = page.getBeforeImage();
+        assertEquals("name1", ((StringField) before.getTuple(1).getField(1)).getValue());
+    }
+
+    /**
+     * A page only reports room for tuples that actually fit.
+     */
+    @Test public void fillPage() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), hf.numPages());
+        SlottedHeapPage page = new SlottedHeapPage(pid,
+                HeapPage.createEmptyPageData(BufferPool.PAGE_SIZE));
+        assertEquals(0, page.numSlots);
+
+        int n = 0;
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(0));
+        t.setField(1, new StringField("abcdefgh", Type.STRING_LEN));
+        while (page.hasRoomFor(t)) {
+            Tuple c = new Tuple(td);
+            c.setField(0, new IntField(n++));
+            c.setField(1, t.getField(1));
+            page.insertTuple(c);
+        }
+        // 4 byte slot entry + 4 byte int + 4 byte length + 8 characters
+        assertEquals((BufferPool.PAGE_SIZE - SlottedHeapPage.HEADER_SIZE) / 20, n);
+        try {
+            page.insertTuple(t);
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class StealTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 3;
+    private static final int TABLE_PAGES = 10;
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createHeapFilePages(2, TABLE_PAGES, POOL_PAGES, null);
+        bp = Database.getBufferPool();
+    }
+
+    /** Delete the first tuple of every page, dirtying more pages than fit. */
+    private void deleteFirstTuples(TransactionId tid) throws Exception {
+        for (int pg = 0; pg < TABLE_PAGES; pg++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), pg), Permissions.READ_WRITE);
+            bp.deleteTuple(tid, p.getTuple(0));
+        }
+    }
+
+    /** @return the number of pages whose first slot is used on disk. */
+    private int firstSlotsOnDisk() {
+        int n = 0;
+        for (int pg = 0; pg < TABLE_PAGES; pg++)
+            if (((HeapPage) hf.readPage(new HeapPageId(hf.getId(), pg))).isSlotUsed(0))
+                n++;
+        return n;
+    }
+
+    @Test(expected = DbException.class)
+    public void noStealFails() throws Exception {
+        deleteFirstTuples(new TransactionId());
+    }
+
+    /** Stolen pages are undone from the log when the transaction aborts. */
+    @Test public void abortUndoesStolenPages() throws Exception {
+        bp.setSteal(true);
+        Transaction t = new Transaction();
+        t.start();
+        deleteFirstTuples(t.getId());
+        assertTrue(firstSlotsOnDisk() < TABLE_PAGES);
+        t.abort();
+        assertEquals(TABLE_PAGES, firstSlotsOnDisk());
+    }
+
+    @Test public void commitKeepsStolenPages() throws Exception {
+        bp.setSteal(true);
+        TransactionId tid = new TransactionId();
+        deleteFirstTuples(tid);
+        bp.transactionComplete(tid, true);
+        assertEquals(0, firstSlotsOnDisk());
+    }
+
+    /** Recovery undoes stolen pages of a transaction that never finished. */
+    @Test public void recoverUndoesStolenPages() throws Exception {
+        bp.setSteal(true);
+        Transaction t = new Transaction();
+        t.start();
+        deleteFirstTuples(t.getId());
+        assertTrue(firstSlotsOnDisk() < TABLE_PAGES);
+
+        new LogFile(Database.getLogFile().logFile).recover();
+        assertEquals(TABLE_PAGES, firstSlotsOnDisk());
+    }
+
+    /** A ring prefetch of a stolen page is dropped once abort undoes it. */
+    @Test public void undoDropsRingPrefetch() throws Exception {
+        bp.setSteal(true);
+        Transaction t = new Transaction();
+        t.start();
+        deleteFirstTuples(t.getId());
+        HeapPageId pid = null;
+        for (int pg = 0; pid == null; pg++)
+            if (!((HeapPage) hf.readPage(new HeapPageId(hf.getId(), pg))).isSlotUsed(0))
+                pid = new HeapPageId(hf.getId(), pg);
+        ScanRing ring = new ScanRing(bp);
+        ring.prefetch(pid, new Executor() {
+            public void execute(Runnable r) {
+                r.run();
+            }
+        });
+        t.abort();
+        assertNull(ring.get(pid));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StealTest.class);
+    }
+}
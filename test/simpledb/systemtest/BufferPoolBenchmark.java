@@ -0,0 +1,70 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures BufferPool.getPage throughput with several threads reading
+ * random pages of one table. Not a JUnit test; run it directly:
+ * <pre>
+ *   java simpledb.systemtest.BufferPoolBenchmark [pages] [poolPages] [readsPerThread]
+ * </pre>
+ * With poolPages at least pages (the default) every read after warm-up is
+ * a hit; a smaller pool also exercises misses and eviction. Each thread
+ * runs transactions of 100 reads.
+ */
+public class BufferPoolBenchmark {
+
+    static final int READS_PER_TRANSACTION = 100;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : pages;
+        final int reads = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+        // one int column: 992 tuples per page
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * pages, 1000, null, tuples);
+        final HeapFile hf = Utility.openHeapFile(1, f);
+        final int numPages = hf.numPages();
+
+        System.out.printf("%d pages, pool of %d pages, %d reads per thread%n",
+                numPages, poolPages, reads);
+        System.out.printf("%8s %14s%n", "threads", "reads/s");
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= Math.max(cores, 1); threads *= 2) {
+            Database.resetBufferPool(poolPages);
+            Thread[] ts = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                final long seed = i;
+                ts[i] = new Thread() {
+                    public void run() {
+                        Random r = new Random(seed);
+                        try {
+                            for (int done = 0; done < reads; ) {
+                                TransactionId tid = new TransactionId();
+                                for (int j = 0; j < READS_PER_TRANSACTION; j++, done++)
+                                    Database.getBufferPool().getPage(tid,
+                                            new HeapPageId(hf.getId(), r.nextInt(numPages)),
+                                            Permissions.READ_ONLY);
+                                Database.getBufferPool().transactionComplete(tid);
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+            }
+            long start = System.nanoTime();
+            for (Thread t : ts)
+                t.start();
+            for (Thread t : ts)
+                t.join();
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%8d %14.0f%n", threads, threads * (double) reads / secs);
+        }
+    }
+}
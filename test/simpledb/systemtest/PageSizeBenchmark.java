@@ -0,0 +1,83 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Measures scan and insert throughput of a HeapFile at several page sizes.
+ * Not a JUnit test; run it directly:
+ * <pre>
+ *   java simpledb.systemtest.PageSizeBenchmark [rows] [columns]
+ * </pre>
+ * Each table is scanned cold (fresh buffer pool) through a SeqScan, and
+ * rows are inserted one at a time through the buffer pool into an empty
+ * table, committing at the end.
+ */
+public class PageSizeBenchmark {
+
+    static final int[] PAGE_SIZES = { 4096, 8192, 16384, 32768, 65536 };
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        SystemTestUtil.createRandomHeapFileUnopened(columns, rows, 1 << 16, null, tuples);
+
+        System.out.printf("%d rows, %d int columns%n", rows, columns);
+        System.out.printf("%10s %8s %14s %14s%n", "page size", "pages", "scan rows/s", "insert rows/s");
+        for (int pageSize : PAGE_SIZES) {
+            Database.reset();
+            File f = File.createTempFile("bench", ".dat");
+            f.deleteOnExit();
+            HeapFileEncoder.convert(tuples, f, pageSize, columns);
+            HeapFile hf = new HeapFile(f, Utility.getTupleDesc(columns), pageSize);
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+            double scanRate = rows / timeScan(hf);
+            double insertRate = rows / timeInsert(columns, pageSize, rows);
+            System.out.printf("%10d %8d %14.0f %14.0f%n", pageSize, hf.numPages(),
+                    scanRate, insertRate);
+        }
+    }
+
+    /** @return seconds taken to scan every tuple of hf with a cold pool */
+    static double timeScan(HeapFile hf) throws DbException, TransactionAbortedException,
+            IOException {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "t");
+        long start = System.nanoTime();
+        scan.open();
+        while (scan.hasNext())
+            scan.next();
+        scan.close();
+        double secs = (System.nanoTime() - start) / 1e9;
+        t.commit();
+        return secs;
+    }
+
+    /** @return seconds taken to insert rows tuples into an empty table */
+    static double timeInsert(int columns, int pageSize, int rows) throws Exception {
+        File f = File.createTempFile("bench", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(columns), pageSize);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        // large enough that the whole table fits: this measures the insert
+        // path, not NO STEAL eviction failures
+        Database.resetBufferPool(rows / 10 + BufferPool.DEFAULT_PAGES);
+
+        Transaction t = new Transaction();
+        t.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < rows; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                    Utility.getHeapTuple(i, columns));
+        t.commit();
+        return (System.nanoTime() - start) / 1e9;
+    }
+}
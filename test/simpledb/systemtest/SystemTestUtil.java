@@ -85,6 +85,26 @@ public class SystemTestUtil {
         return temp;
     }
 
+    /** @return the number of tuples of int columns that fill one page */
+    public static int tuplesPerPage(int columns) {
+        return BufferPool.PAGE_SIZE * 8 / (columns * Type.INT_TYPE.getLen() * 8 + 1);
+    }
+
+    /**
+     * Creates a table of full pages of random ints and adds it to the
+     * catalog, then gives the Database a new buffer pool, for tests of the
+     * pool itself.
+     * @param tuples if not null, filled with the table's tuples
+     */
+    public static HeapFile createHeapFilePages(int columns, int pages, int poolPages,
+            ArrayList<ArrayList<Integer>> tuples) throws IOException {
+        File f = createRandomHeapFileUnopened(columns, pages * tuplesPerPage(columns),
+                MAX_RAND_VALUE, null, tuples);
+        HeapFile hf = Utility.openHeapFile(columns, f);
+        Database.resetBufferPool(poolPages);
+        return hf;
+    }
+
     public static ArrayList<Integer> tupleToList(Tuple tuple) {
         ArrayList<Integer> list = new ArrayList<Integer>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {